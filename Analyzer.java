@@ -0,0 +1,201 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Analyses a file of positions with SmartAI on all cores and writes the best move, its score, the
+ * principal variation and the nodes searched for each of them. The positions are read, searched and
+ * written as a stream, in the order of the input, so the files can be of any length.
+ *
+ * The input is either a position file written by SelfPlay (see there), or a text file with one position
+ * per line: the squares row by row as '.' (empty), 'X' (black) and 'O' (white), a space, and 'X' or 'O'
+ * for the player in turn. The board size follows from the number of squares. Empty lines and lines
+ * starting with '#' are skipped.
+ *
+ * The output has a line per position with tab-separated columns: the number of the position (from 0),
+ * the best move as col,row, the score for the player in turn (see SmartAI.getScore), the depth searched,
+ * the nodes and the principal variation as moves separated by spaces, with "pass" for a pass. A position
+ * where the player in turn has no legal move gets "-" as its move, its Utility as its score and no search.
+ *
+ * Every thread has its own SmartAI, whose transposition table is kept from one position to the next.
+ *
+ * Usage: java Analyzer [-i input] [-o output] [-d depth] [-n nodes] [-e endgame empties] [-t threads]
+ * Defaults to positions.bin, analysis.txt, depth 8, no node limit, solving the last 12 empty squares
+ * and one thread per core. A node limit stops the search at the deepest iteration completed within it.
+ */
+public class Analyzer {
+
+    public static void main(String[] args) throws Exception {
+        String input = "positions.bin";
+        String output = "analysis.txt";
+        int depth = 8;
+        long nodes = 0;
+        int endgame = 12;
+        int threads = Runtime.getRuntime().availableProcessors();
+        var options = new Options(args, "Usage: java Analyzer [-i input] [-o output] [-d depth] [-n nodes] [-e endgame empties] [-t threads]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-i": input = options.value(); break;
+                case "-o": output = options.value(); break;
+                case "-d": depth = options.intValue(); break;
+                case "-n": nodes = options.longValue(); break;
+                case "-e": endgame = options.intValue(); break;
+                case "-t": threads = options.intValue(); break;
+                default: options.unknown();
+            }
+        }
+        int maxDepth = depth;
+        long nodeLimit = nodes;
+        int endgameEmpties = endgame;
+        ThreadLocal<SmartAI> ais = ThreadLocal.withInitial(() -> {
+            var ai = new SmartAI(64);
+            ai.setTimeLimit(0);
+            ai.setMaxDepth(maxDepth);
+            ai.setNodeLimit(nodeLimit);
+            ai.setEndgameEmpties(endgameEmpties);
+            return ai;
+        });
+
+        long start = System.nanoTime();
+        int count = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // The results not written yet, in the order of the input. At most a few per thread are kept, so
+        // the reader waits for the searches instead of reading ahead.
+        Deque<Future<String>> pending = new ArrayDeque<>();
+        int window = 4 * threads;
+        try (var positions = open(input);
+             var out = new PrintWriter(new BufferedWriter(new FileWriter(output, StandardCharsets.UTF_8), 1 << 16))) {
+            out.println("# position\tmove\tscore\tdepth\tnodes\tpv");
+            for (GameState state = positions.next(); state != null; state = positions.next()) {
+                int index = count++;
+                var position = state;
+                pending.add(pool.submit(() -> analyse(ais.get(), position, index)));
+                if (pending.size() >= window)
+                    out.println(pending.remove().get());
+                if (count % 1000 == 0)
+                    System.out.printf("%d positions, %.1f s%n", count, (System.nanoTime() - start) / 1e9);
+            }
+            while (!pending.isEmpty())
+                out.println(pending.remove().get());
+        }
+        finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d positions in %.1f s (%.1f positions/s), results written to %s%n", count, seconds,
+                count / seconds, output);
+    }
+
+    // Returns the line of the output for the position
+    private static String analyse(SmartAI ai, GameState state, int index) {
+        int size = state.getSize();
+        if (state.getMobility(state.getPlayerInTurn()) == 0)
+            return index + "\t-\t" + SmartAI.Utility(state, state.getPlayerInTurn()) + "\t0\t0\t";
+        Position move = ai.decideMove(state);
+        var pv = new StringBuilder();
+        for (int m : ai.getPrincipalVariation(state)) {
+            if (pv.length() > 0)
+                pv.append(' ');
+            pv.append(m == -1 ? "pass" : (m / size) + "," + (m % size));
+        }
+        return index + "\t" + move.col + "," + move.row + "\t" + ai.getScore() + "\t" + ai.getCompletedDepth()
+                + "\t" + ai.getNodes() + "\t" + pv;
+    }
+
+    /**
+     * A stream of positions read from a file.
+     */
+    private interface PositionReader extends AutoCloseable {
+        /** Returns the next position, or null at the end of the file. */
+        GameState next() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    // Opens a position file of SelfPlay if the file starts with its magic number, and a text file otherwise
+    private static PositionReader open(String file) throws IOException {
+        var in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        in.mark(4);
+        var data = new DataInputStream(in);
+        int magic;
+        try {
+            magic = data.readInt();
+        } catch (EOFException e) {
+            magic = 0;
+        }
+        if (magic == SelfPlay.MAGIC) {
+            if (data.readInt() != SelfPlay.VERSION)
+                throw new IOException(file + " is a position file of another version");
+            return new PositionReader() {
+                public GameState next() throws IOException {
+                    long black;
+                    try {
+                        black = data.readLong();
+                    } catch (EOFException e) {
+                        return null;
+                    }
+                    long white = data.readLong();
+                    int player = data.readByte();
+                    data.readByte(); // The result of the game
+                    return GameState.fromBitboards(black, white, player);
+                }
+
+                public void close() throws IOException {
+                    data.close();
+                }
+            };
+        }
+        in.reset();
+        var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return new PositionReader() {
+            private int lineNumber;
+
+            public GameState next() throws IOException {
+                String line;
+                do {
+                    line = reader.readLine();
+                    lineNumber++;
+                    if (line == null)
+                        return null;
+                    line = line.trim();
+                } while (line.isEmpty() || line.startsWith("#"));
+                return parse(line, lineNumber);
+            }
+
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    // Parses a line of a text file: the squares row by row and the player in turn
+    private static GameState parse(String line, int lineNumber) throws IOException {
+        String[] words = line.split("\\s+");
+        int size = (int) Math.round(Math.sqrt(words[0].length()));
+        if (words.length != 2 || size * size != words[0].length() || size < 4 || size % 2 != 0
+                || !(words[1].equals("X") || words[1].equals("O")))
+            throw new IOException("Line " + lineNumber + " is not a position: " + line);
+        int[][] board = new int[size][size];
+        for (int i = 0; i < words[0].length(); i++) {
+            int token = ".XO".indexOf(words[0].charAt(i));
+            if (token < 0)
+                throw new IOException("Line " + lineNumber + " has an unknown square " + words[0].charAt(i));
+            board[i % size][i / size] = token;
+        }
+        return new GameState(board, words[1].equals("X") ? 1 : 2);
+    }
+}
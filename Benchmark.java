@@ -0,0 +1,213 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Micro-benchmarks of the game logic and the search: move generation, inserting tokens, making and
+ * unmaking moves, counting tokens, the evaluation function and a full SmartAI search, each on a fixed
+ * opening, midgame and endgame position of an 8x8 board.
+ *
+ * The measurement is a plain timing loop, not JMH: every benchmark is run in this JVM for a number of
+ * warmup iterations (to let the JIT compile it) and then for a number of measured iterations of fixed
+ * length, and dead code elimination is only prevented by adding results to a volatile field. Each
+ * benchmark prepares its position before it is timed, so only the operation itself is measured.
+ * The mean and the 99.9% confidence error over the measured iterations are printed, and written as
+ * JSON in the layout of JMH's JSON results (benchmark, mode, params, and primaryMetric with score,
+ * scoreError, scoreUnit and rawData), so the results of two commits can be compared with the tools
+ * that read those.
+ *
+ * Usage: java Benchmark [-o results.json] [-f filter] [-w warmup iterations] [-i iterations] [-t millis per iteration]
+ */
+public class Benchmark {
+
+    private static volatile long sink; // Results are added here so the JIT can not remove the work
+
+    private final String name;
+    private final String unit;          // "ops/s" for fast operations, "ms/op" for searches
+    private final Function<GameState, Runnable> setup; // Prepares a position and returns the timed operation
+
+    private Benchmark(String name, String unit, Function<GameState, Runnable> setup) {
+        this.name = name;
+        this.unit = unit;
+        this.setup = setup;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String output = "benchmark.json";
+        String filter = "";
+        int warmups = 3;
+        int iterations = 5;
+        long millis = 1000;
+        var options = new Options(args, "Usage: java Benchmark [-o results.json] [-f filter] [-w warmup iterations] [-i iterations] [-t millis per iteration]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-o": output = options.value(); break;
+                case "-f": filter = options.value(); break;
+                case "-w": warmups = options.intValue(); break;
+                case "-i": iterations = options.intValue(); break;
+                case "-t": millis = options.longValue(); break;
+                default: options.unknown();
+            }
+        }
+
+        Map<String, GameState> positions = positions();
+        List<String> results = new ArrayList<>();
+        for (Benchmark b : benchmarks()) {
+            for (var position : positions.entrySet()) {
+                String id = b.name + ":" + position.getKey();
+                if (!id.contains(filter))
+                    continue;
+                double[] scores = b.run(position.getValue(), warmups, iterations, millis);
+                double mean = mean(scores);
+                double error = error(scores);
+                System.out.printf(Locale.ROOT, "%-36s %14.3f +- %10.3f %s%n", id, mean, error, b.unit);
+                results.add(b.json(position.getKey(), mean, error, scores));
+            }
+        }
+        try (var out = new PrintWriter(new FileWriter(output))) {
+            out.println("[");
+            out.println(String.join(",\n", results));
+            out.println("]");
+        }
+        System.out.println("Results written to " + output);
+    }
+
+    /**
+     * Returns the benchmarks. Each is given its own copy of the position to prepare, and its operation
+     * must leave the position as it was.
+     */
+    static List<Benchmark> benchmarks() {
+        List<Benchmark> list = new ArrayList<>();
+        list.add(new Benchmark("legalMoves", "ops/s", s -> () -> sink += s.legalMoves().size()));
+        list.add(new Benchmark("legalMovesBuffer", "ops/s", s -> {
+            int[] buffer = new int[64];
+            return () -> sink += s.legalMoves(buffer);
+        }));
+        list.add(new Benchmark("insertToken", "ops/s", s -> {
+            // insertToken can not be taken back itself, so the move is taken back with the record that
+            // applyMove gives for it, which is the same every time
+            int move = firstMove(s);
+            var place = new Position(move / 8, move % 8);
+            long undo = s.applyMove(move);
+            s.undoMove(move, undo);
+            return () -> {
+                sink += s.insertToken(place) ? 1 : 0;
+                s.undoMove(move, undo);
+            };
+        }));
+        list.add(new Benchmark("applyUndoMove", "ops/s", s -> {
+            int move = firstMove(s);
+            return () -> {
+                long undo = s.applyMove(move);
+                sink += undo;
+                s.undoMove(move, undo);
+            };
+        }));
+        list.add(new Benchmark("countTokens", "ops/s", s -> () -> sink += s.countTokens()[0]));
+        list.add(new Benchmark("utility", "ops/s", s -> () -> sink += SmartAI.Utility(s, s.getPlayerInTurn())));
+        var ai = new SmartAI(16);
+        ai.setTimeLimit(0);
+        ai.setMaxDepth(6);
+        ai.setEndgameEmpties(0);
+        list.add(new Benchmark("decideMoveDepth6", "ms/op", s -> () -> {
+            // Every search starts from an empty table, so all of them do the same work
+            ai.getTranspositionTable().clear();
+            sink += ai.decideMove(s).col;
+        }));
+        return list;
+    }
+
+    // Returns the first legal move (col*8+row) of the player in turn
+    private static int firstMove(GameState state) {
+        int[] moves = new int[64];
+        state.legalMoves(moves);
+        return moves[0];
+    }
+
+    /**
+     * Returns the benchmark positions: the start position, a midgame position with 30 tokens and an
+     * endgame position with 50 tokens, reached by random moves from a fixed seed.
+     */
+    static Map<String, GameState> positions() {
+        Map<String, GameState> positions = new LinkedHashMap<>();
+        positions.put("opening", new GameState(8, 1));
+        positions.put("midgame", randomPosition(30, 1));
+        positions.put("endgame", randomPosition(50, 2));
+        return positions;
+    }
+
+    // Plays random moves from the start position until there are the given number of tokens
+    private static GameState randomPosition(int tokens, long seed) {
+        var random = new Random(seed);
+        while (true) {
+            var state = new GameState(8, 1);
+            while (!state.isFinished()) {
+                int[] count = state.countTokens();
+                var moves = state.legalMoves();
+                if (count[0] + count[1] >= tokens && !moves.isEmpty())
+                    return state;
+                if (moves.isEmpty())
+                    state.changePlayer();
+                else
+                    state.insertToken(moves.get(random.nextInt(moves.size())));
+            }
+        }
+    }
+
+    // Runs the warmup and measured iterations and returns the score of each measured iteration
+    private double[] run(GameState position, int warmups, int iterations, long millis) {
+        var state = new GameState(position.getBoard(), position.getPlayerInTurn());
+        Runnable operation = setup.apply(state);
+        double[] scores = new double[iterations];
+        for (int i = 0; i < warmups + iterations; i++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long end = start + millis * 1000000;
+            long now;
+            do {
+                operation.run();
+                ops++;
+            } while ((now = System.nanoTime()) < end);
+            double seconds = (now - start) / 1e9;
+            if (i >= warmups)
+                scores[i - warmups] = unit.equals("ops/s") ? ops / seconds : seconds * 1000 / ops;
+        }
+        return scores;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double v : values)
+            sum += v;
+        return sum / values.length;
+    }
+
+    // Half the width of the 99.9% confidence interval of the mean (normal approximation)
+    private static double error(double[] values) {
+        if (values.length < 2)
+            return Double.NaN;
+        double mean = mean(values);
+        double squares = 0;
+        for (double v : values)
+            squares += (v - mean) * (v - mean);
+        return 3.29 * Math.sqrt(squares / (values.length - 1)) / Math.sqrt(values.length);
+    }
+
+    private String json(String position, double mean, double error, double[] scores) {
+        var raw = new StringBuilder();
+        for (double s : scores)
+            raw.append(raw.length() == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.6f", s));
+        return String.format(Locale.ROOT,
+                "  {\"benchmark\": \"Benchmark.%s\", \"mode\": \"%s\", \"params\": {\"position\": \"%s\"},%n"
+                + "   \"primaryMetric\": {\"score\": %.6f, \"scoreError\": %s, \"scoreUnit\": \"%s\", \"rawData\": [[%s]]}}",
+                name, unit.equals("ops/s") ? "thrpt" : "avgt", position, mean,
+                Double.isNaN(error) ? "\"NaN\"" : String.format(Locale.ROOT, "%.6f", error), unit, raw);
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Bitboard helpers for the 8x8 board. A board is represented by two longs, one for the
+ * tokens of the player in turn and one for the tokens of the opponent. The square at
+ * column col and row row is bit col*8+row, so iterating the bits from lowest to highest
+ * visits the squares in the same order as GameState scans its board array.
+ */
+public class BitBoard {
+
+    public static final int SIZE = 8;
+
+    // Squares in row 0 and row 7 respectively. Shifting a token one row down (or up) across
+    // a column boundary lands it on one of these, so they are masked off after such shifts.
+    static final long ROW_0 = 0x0101010101010101L;
+    static final long ROW_7 = 0x8080808080808080L;
+
+    private static final long NOT_ROW_0 = ~ROW_0;
+    private static final long NOT_ROW_7 = ~ROW_7;
+
+    /**
+     * Returns the bit index of the given position on the 8x8 board.
+     */
+    public static int square(int col, int row) {
+        return col * SIZE + row;
+    }
+
+    /**
+     * Returns the square a square moves to under one of the 8 symmetries of the board: symmetries 4-7
+     * reflect the board in its main diagonal, and then the board is turned a quarter 0-3 times.
+     * Symmetry 0 leaves the board as it is.
+     */
+    public static int transform(int square, int symmetry) {
+        int col = square / SIZE;
+        int row = square % SIZE;
+        if (symmetry >= 4) {
+            int t = col;
+            col = row;
+            row = t;
+        }
+        for (int i = 0; i < symmetry % 4; i++) {
+            int t = col;
+            col = SIZE - 1 - row;
+            row = t;
+        }
+        return square(col, row);
+    }
+
+    /**
+     * Returns the bitboard of the squares the given squares move to under one of the 8 symmetries
+     * (see transform(int, int)).
+     */
+    public static long transform(long squares, int symmetry) {
+        long result = 0;
+        for (long b = squares; b != 0; b &= b - 1)
+            result |= 1L << transform(Long.numberOfTrailingZeros(b), symmetry);
+        return result;
+    }
+
+    /**
+     * Returns the squares where the player owning p can legally put a token, given that the
+     * opponent owns o.
+     */
+    public static long moves(long p, long o) {
+        long empty = ~(p | o);
+        long moves = 0;
+        moves |= movesLeft(p, o, 1, NOT_ROW_0);     // row + 1
+        moves |= movesRight(p, o, 1, NOT_ROW_7);    // row - 1
+        moves |= movesLeft(p, o, 8, -1L);           // col + 1
+        moves |= movesRight(p, o, 8, -1L);          // col - 1
+        moves |= movesLeft(p, o, 9, NOT_ROW_0);     // col + 1, row + 1
+        moves |= movesRight(p, o, 9, NOT_ROW_7);    // col - 1, row - 1
+        moves |= movesLeft(p, o, 7, NOT_ROW_7);     // col + 1, row - 1
+        moves |= movesRight(p, o, 7, NOT_ROW_0);    // col - 1, row + 1
+        return moves & empty;
+    }
+
+    /**
+     * Returns the opponent tokens that are turned if the player owning p puts a token at the
+     * given square. Returns 0 if the move captures nothing, i.e. if it is not legal.
+     * The square is assumed to be empty.
+     */
+    public static long flips(long p, long o, int square) {
+        long m = 1L << square;
+        long flips = 0;
+        flips |= flipsLeft(m, p, o, 1, NOT_ROW_0);
+        flips |= flipsRight(m, p, o, 1, NOT_ROW_7);
+        flips |= flipsLeft(m, p, o, 8, -1L);
+        flips |= flipsRight(m, p, o, 8, -1L);
+        flips |= flipsLeft(m, p, o, 9, NOT_ROW_0);
+        flips |= flipsRight(m, p, o, 9, NOT_ROW_7);
+        flips |= flipsLeft(m, p, o, 7, NOT_ROW_7);
+        flips |= flipsRight(m, p, o, 7, NOT_ROW_0);
+        return flips;
+    }
+
+    // Shifting by s may wrap a token around to the opposite edge of the board; the squares
+    // it could wrap onto are cleared by the landing mask l after every shift.
+    private static long movesLeft(long p, long o, int s, long l) {
+        long om = o & l;
+        long t = (p << s) & om;
+        t |= (t << s) & om;
+        t |= (t << s) & om;
+        t |= (t << s) & om;
+        t |= (t << s) & om;
+        t |= (t << s) & om;
+        return (t << s) & l;
+    }
+
+    private static long movesRight(long p, long o, int s, long l) {
+        long om = o & l;
+        long t = (p >>> s) & om;
+        t |= (t >>> s) & om;
+        t |= (t >>> s) & om;
+        t |= (t >>> s) & om;
+        t |= (t >>> s) & om;
+        t |= (t >>> s) & om;
+        return (t >>> s) & l;
+    }
+
+    private static long flipsLeft(long m, long p, long o, int s, long l) {
+        long om = o & l;
+        long f = 0;
+        long x = (m << s) & om;
+        while (x != 0) {
+            f |= x;
+            x = (x << s) & om;
+        }
+        // The run of opponent tokens has to be closed by one of the player's own tokens
+        long end = ((f == 0 ? m : Long.highestOneBit(f)) << s) & l;
+        return (end & p) != 0 ? f : 0;
+    }
+
+    private static long flipsRight(long m, long p, long o, int s, long l) {
+        long om = o & l;
+        long f = 0;
+        long x = (m >>> s) & om;
+        while (x != 0) {
+            f |= x;
+            x = (x >>> s) & om;
+        }
+        long end = ((f == 0 ? m : Long.lowestOneBit(f)) >>> s) & l;
+        return (end & p) != 0 ? f : 0;
+    }
+}
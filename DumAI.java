@@ -1,6 +1,4 @@
 
-import java.util.ArrayList;
-
 /**
  * A simple OthelloAI-implementation. The method to decide the next move just
  * returns the first legal move that it finds. 
@@ -13,9 +11,9 @@ public class DumAI implements IOthelloAI{
 	 * Returns first legal move
 	 */
 	public Position decideMove(GameState s){
-		ArrayList<Position> moves = s.legalMoves();
-		if ( !moves.isEmpty() )
-			return moves.get(0);
+		int[] moves = new int[s.getSize()*s.getSize()];
+		if ( s.legalMoves(moves) > 0 )
+			return new Position(moves[0] / s.getSize(), moves[0] % s.getSize());
 		else
 			return new Position(-1,-1);
 	}
@@ -0,0 +1,282 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exact endgame solver for SmartAI. It searches to the end of the game in every line and returns the
+ * final disc differential (own tokens minus the opponent's) with best play from both sides, instead of
+ * the heuristic score of the normal search.
+ *
+ * On 8x8 boards the solver works directly on bitboards, tries moves that leave the opponent with the
+ * fewest replies first (fastest-first), prefers moves in regions of the board with an odd number of
+ * empty squares (parity), and solves the last three empty squares with special routines that only try
+ * the empty squares instead of generating moves. Other board sizes use a plain alpha-beta search on
+ * GameState.
+ */
+class EndgameSolver {
+
+    private static final int TIME_CHECK_INTERVAL = 4096; // Nodes between checks of the clock, a power of two
+    private static final int FASTEST_FIRST_EMPTIES = 7;  // Fastest-first ordering is used from this many empties
+
+    // The four 4x4 quadrants of the 8x8 board (see BitBoard for the numbering of the squares)
+    private static final long[] QUADRANTS = {
+        0x000000000F0F0F0FL, 0x00000000F0F0F0F0L, 0x0F0F0F0F00000000L, 0xF0F0F0F000000000L
+    };
+
+    private long deadline;
+    private boolean aborted;
+    volatile AtomicBoolean stopToken = new AtomicBoolean(); // Of the running decideMove, set by SmartAI.stop,
+                                                            // makes the solver give up at its next check of the clock
+    private int score;
+    long nodes;
+
+    // Buffers for the ordered moves and their sort keys, per number of empty squares. Every empty square
+    // can be a legal move, so a buffer holds 64 moves.
+    private final int[][] orderedMoves = new int[65][64];
+    private final int[][] orderKeys = new int[65][64];
+    private int[][] genericMoves;
+    private int[] priority;
+
+    /**
+     * Solves the given state for the player in turn, who must have a legal move, and returns the best
+     * move (col*size+row), or -1 if the solver ran out of time before the given System.nanoTime()
+     * deadline. The state is left unchanged.
+     */
+    int solve(GameState state, long deadline) {
+        this.deadline = deadline;
+        aborted = false;
+        nodes = 0;
+        if (state.getSize() == BitBoard.SIZE) {
+            int player = state.getPlayerInTurn();
+            return solveRoot(state.getBitboard(player), state.getBitboard(player == 1 ? 2 : 1));
+        }
+        return solveRootGeneric(state);
+    }
+
+    /**
+     * Returns the final disc differential for the player in turn found by the latest completed solve.
+     */
+    int getScore() {
+        return score;
+    }
+
+    private int solveRoot(long p, long o) {
+        long empty = ~(p | o);
+        int n = Long.bitCount(empty);
+        int count = orderMoves(p, o, BitBoard.moves(p, o), empty, n);
+        int[] moves = orderedMoves[n];
+        int alpha = -65;
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            int sq = moves[i];
+            long f = BitBoard.flips(p, o, sq);
+            int v = -negamax(o & ~f, p | f | (1L << sq), -65, -alpha, false);
+            if (aborted)
+                return -1;
+            if (v > alpha) {
+                alpha = v;
+                best = sq;
+            }
+        }
+        score = alpha;
+        return best;
+    }
+
+    // Returns the final disc differential for the owner of p, who is in turn, within the window alpha..beta
+    private int negamax(long p, long o, int alpha, int beta, boolean passed) {
+        if ((++nodes & (TIME_CHECK_INTERVAL - 1)) == 0 && (System.nanoTime() > deadline || stopToken.get()))
+            aborted = true;
+        if (aborted)
+            return 0;
+        long empty = ~(p | o);
+        int n = Long.bitCount(empty);
+        if (n <= 3)
+            return n == 0 ? Long.bitCount(p) - Long.bitCount(o) : solveLast(p, o, alpha, beta, empty, n, passed);
+
+        long moves = BitBoard.moves(p, o);
+        if (moves == 0) {
+            if (passed)
+                return Long.bitCount(p) - Long.bitCount(o);
+            return -negamax(o, p, -beta, -alpha, true);
+        }
+        int count = orderMoves(p, o, moves, empty, n);
+        int[] ordered = orderedMoves[n];
+        int best = -65;
+        for (int i = 0; i < count; i++) {
+            int sq = ordered[i];
+            long f = BitBoard.flips(p, o, sq);
+            int v = -negamax(o & ~f, p | f | (1L << sq), -beta, -Math.max(alpha, best), false);
+            if (v > best) {
+                best = v;
+                if (best >= beta)
+                    break;
+            }
+        }
+        return best;
+    }
+
+    // Solves positions with 1 to 3 empty squares by trying each empty square directly; BitBoard.flips
+    // tells if a square is a legal move, so no move generation is needed
+    private int solveLast(long p, long o, int alpha, int beta, long empty, int n, boolean passed) {
+        if (n == 1)
+            return solveLastOne(p, o, Long.numberOfTrailingZeros(empty));
+        nodes++;
+        // With three empty squares, the one alone in its quadrant is tried first (parity)
+        long first = empty;
+        if (n == 3) {
+            for (long q : QUADRANTS) {
+                if (Long.bitCount(empty & q) == 1)
+                    first = empty & q;
+            }
+        }
+        int best = -65;
+        boolean moved = false;
+        for (long b = first | empty; b != 0; ) {
+            long bit = (first & b) != 0 ? Long.lowestOneBit(first & b) : Long.lowestOneBit(b);
+            b &= ~bit;
+            int sq = Long.numberOfTrailingZeros(bit);
+            long f = BitBoard.flips(p, o, sq);
+            if (f == 0)
+                continue;
+            moved = true;
+            long np = p | f | bit;
+            long no = o & ~f;
+            int v = n == 2 ? -solveLastOne(no, np, Long.numberOfTrailingZeros(empty & ~bit))
+                           : -solveLast(no, np, -beta, -Math.max(alpha, best), empty & ~bit, n - 1, false);
+            if (v > best) {
+                best = v;
+                if (best >= beta)
+                    return best;
+            }
+        }
+        if (moved)
+            return best;
+        if (passed)
+            return Long.bitCount(p) - Long.bitCount(o);
+        return -solveLast(o, p, -beta, -alpha, empty, n, true);
+    }
+
+    // Solves a position with one empty square, where the owner of p is in turn
+    private int solveLastOne(long p, long o, int sq) {
+        nodes++;
+        int own = Long.bitCount(p);
+        int opp = Long.bitCount(o);
+        long f = BitBoard.flips(p, o, sq);
+        if (f != 0) {
+            int turned = Long.bitCount(f);
+            return own + turned + 1 - (opp - turned);
+        }
+        f = BitBoard.flips(o, p, sq);
+        if (f != 0) {
+            int turned = Long.bitCount(f);
+            return own - turned - (opp + turned + 1);
+        }
+        return own - opp;
+    }
+
+    // Writes the moves to orderedMoves[n] in the order they should be tried and returns how many there are.
+    // Moves in quadrants with an odd number of empty squares come first, and with many empty squares the
+    // moves are sorted by the opponent's number of replies (fewest first).
+    private int orderMoves(long p, long o, long moves, long empty, int n) {
+        long odd = 0;
+        for (long q : QUADRANTS) {
+            if ((Long.bitCount(empty & q) & 1) != 0)
+                odd |= q;
+        }
+        int[] ordered = orderedMoves[n];
+        int[] keys = orderKeys[n];
+        int count = 0;
+        for (long b = moves; b != 0; b &= b - 1) {
+            int sq = Long.numberOfTrailingZeros(b);
+            int key = (odd >>> sq & 1) == 0 ? 1 : 0;
+            if (n >= FASTEST_FIRST_EMPTIES) {
+                long f = BitBoard.flips(p, o, sq);
+                key += 2 * Long.bitCount(BitBoard.moves(o & ~f, p | f | (1L << sq)));
+            }
+            // Insertion sort on the key, ascending
+            int j = count++;
+            while (j > 0 && keys[j - 1] > key) {
+                ordered[j] = ordered[j - 1];
+                keys[j] = keys[j - 1];
+                j--;
+            }
+            ordered[j] = sq;
+            keys[j] = key;
+        }
+        return count;
+    }
+
+    //************ Other board sizes ****************//
+
+    private int solveRootGeneric(GameState state) {
+        int size = state.getSize();
+        int squares = size * size;
+        if (genericMoves == null || genericMoves[0].length != squares) {
+            genericMoves = new int[2 * squares + 1][squares];
+            priority = MoveOrderer.staticPriorities(size);
+        }
+        var copy = new GameState(state.getBoard(), state.getPlayerInTurn());
+        int[] moves = genericMoves[0];
+        int count = orderGeneric(copy, moves);
+        int alpha = -squares - 1;
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            long undo = copy.applyMove(moves[i]);
+            int v = -negamaxGeneric(copy, -squares - 1, -alpha, 1, false);
+            copy.undoMove(moves[i], undo);
+            if (aborted)
+                return -1;
+            if (v > alpha) {
+                alpha = v;
+                best = moves[i];
+            }
+        }
+        score = alpha;
+        return best;
+    }
+
+    private int negamaxGeneric(GameState state, int alpha, int beta, int ply, boolean passed) {
+        if ((++nodes & (TIME_CHECK_INTERVAL - 1)) == 0 && (System.nanoTime() > deadline || stopToken.get()))
+            aborted = true;
+        if (aborted)
+            return 0;
+        int[] moves = genericMoves[ply];
+        int count = orderGeneric(state, moves);
+        if (count == 0) {
+            if (passed) {
+                int[] tokens = state.countTokens();
+                int diff = tokens[0] - tokens[1];
+                return state.getPlayerInTurn() == 1 ? diff : -diff;
+            }
+            state.changePlayer();
+            int v = -negamaxGeneric(state, -beta, -alpha, ply + 1, true);
+            state.changePlayer();
+            return v;
+        }
+        int best = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            long undo = state.applyMove(moves[i]);
+            int v = -negamaxGeneric(state, -beta, -Math.max(alpha, best), ply + 1, false);
+            state.undoMove(moves[i], undo);
+            if (v > best) {
+                best = v;
+                if (best >= beta)
+                    break;
+            }
+        }
+        return best;
+    }
+
+    // Fills moves with the legal moves sorted by the static square priorities and returns their number
+    private int orderGeneric(GameState state, int[] moves) {
+        int count = state.legalMoves(moves);
+        for (int i = 1; i < count; i++) {
+            int m = moves[i];
+            int j = i - 1;
+            while (j >= 0 && priority[moves[j]] < priority[m]) {
+                moves[j + 1] = moves[j];
+                j--;
+            }
+            moves[j + 1] = m;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The record of a game: the board size, the engines playing black and white, every move from the start
+ * position including passes, and the result. Records are written to and read from game files.
+ *
+ * A game file starts with the int "OTPG" and the version 1, followed by the games one after the other.
+ * A game is the board size (byte), the result as black's minus white's tokens (short), the number of
+ * moves (short), the names of the engines of black and white (each a byte with its length and that many
+ * bytes of UTF-8, at most 255), and one byte per move: col*size+row, or 0xFF for a pass. Everything is
+ * big-endian. A game of 60 moves on 8x8 takes about 75 bytes with short engine names, so a file of tens
+ * of millions of games is a few gigabytes. Only games on boards up to 14x14 can be written, so every
+ * square fits in a byte.
+ *
+ * Game files are only appended to, by a Writer, and are read by a Reader, which maps the file into
+ * memory a window at a time.
+ *
+ * The main method replays all games of a file and prints their number, the results and the speed.
+ * Usage: java GameRecord file
+ */
+public final class GameRecord {
+
+    static final int MAGIC = 0x4F545047; // "OTPG"
+    static final int VERSION = 1;
+    private static final int PASS_BYTE = 0xFF;
+    /** A pass, as returned by getMove. */
+    public static final int PASS = -1;
+    /** The largest board size of the games in a game file. */
+    public static final int MAX_SIZE = 14;
+
+    private final int size;
+    private final String black;
+    private final String white;
+    private int[] moves;
+    private int moveCount;
+    private int result;
+
+    /**
+     * Creates the record of a game on a board of the given size between the named engines, with no
+     * moves yet.
+     */
+    public GameRecord(int size, String black, String white) {
+        this.size = size;
+        this.black = black;
+        this.white = white;
+        this.moves = new int[size * size];
+    }
+
+    private GameRecord(int size, String black, String white, int[] moves, int result) {
+        this.size = size;
+        this.black = black;
+        this.white = white;
+        this.moves = moves;
+        this.moveCount = moves.length;
+        this.result = result;
+    }
+
+    /**
+     * Returns a copy of the record with the given engine names, for instance to go on from an opening.
+     */
+    public GameRecord copy(String black, String white) {
+        return new GameRecord(size, black, white, Arrays.copyOf(moves, moveCount), result);
+    }
+
+    /** Adds a move to the record. */
+    public void addMove(Position move) {
+        add(move.col * size + move.row);
+    }
+
+    /** Adds a pass to the record. */
+    public void addPass() {
+        add(PASS);
+    }
+
+    private void add(int move) {
+        if (moveCount == moves.length)
+            moves = Arrays.copyOf(moves, 2 * moves.length);
+        moves[moveCount++] = move;
+    }
+
+    /**
+     * Sets the result from the final state of the game.
+     */
+    public void finish(GameState state) {
+        int[] tokens = state.countTokens();
+        result = tokens[0] - tokens[1];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getBlack() {
+        return black;
+    }
+
+    public String getWhite() {
+        return white;
+    }
+
+    /** Returns the result as black's minus white's tokens at the end of the game. */
+    public int getResult() {
+        return result;
+    }
+
+    /** Returns the number of moves, passes included. */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /** Returns the i'th move as col*size+row, or PASS. */
+    public int getMove(int i) {
+        return moves[i];
+    }
+
+    /**
+     * Replays the moves from the start position with GameState.insertToken and returns the state after
+     * them.
+     * @throws IllegalStateException if a move is illegal.
+     */
+    public GameState replay() {
+        return replay(moveCount);
+    }
+
+    /**
+     * Replays the first given number of moves and returns the state after them.
+     * @throws IllegalStateException if a move is illegal.
+     */
+    public GameState replay(int count) {
+        var state = new GameState(size, 1);
+        for (int i = 0; i < count; i++) {
+            int move = getMove(i);
+            if (move == PASS)
+                state.changePlayer();
+            else if (!state.insertToken(new Position(move / size, move % size)))
+                throw new IllegalStateException("Move " + i + " of the game is illegal");
+        }
+        return state;
+    }
+
+    /**
+     * Appends games to a game file, which is created if it does not exist. Writing is thread-safe, and a
+     * game is written whole, so games from several threads do not mix.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+
+        /**
+         * Opens the file for appending.
+         * @throws IOException if the file can not be written or is not a game file.
+         */
+        public Writer(String file) throws IOException {
+            var f = new File(file);
+            boolean exists = f.length() > 0;
+            if (exists) {
+                try (var in = new DataInputStream(new FileInputStream(f))) {
+                    if (f.length() < 8 || in.readInt() != MAGIC || in.readInt() != VERSION)
+                        throw new IOException(file + " is not a game file");
+                }
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f, true), 1 << 16));
+            if (!exists) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+        }
+
+        /**
+         * Appends the game.
+         * @throws IllegalArgumentException if the board is larger than MAX_SIZE.
+         */
+        public synchronized void write(GameRecord game) throws IOException {
+            if (game.size > MAX_SIZE)
+                throw new IllegalArgumentException("Game files hold boards up to " + MAX_SIZE + "x" + MAX_SIZE);
+            out.writeByte(game.size);
+            out.writeShort(game.result);
+            out.writeShort(game.moveCount);
+            writeName(game.black);
+            writeName(game.white);
+            for (int i = 0; i < game.moveCount; i++)
+                out.writeByte(game.moves[i] == PASS ? PASS_BYTE : game.moves[i]);
+        }
+
+        private void writeName(String name) throws IOException {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, 255);
+            out.writeByte(length);
+            out.write(bytes, 0, length);
+        }
+
+        /** Writes the buffered games to the file. */
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the games of a game file in order. The file is mapped into memory a window at a time, so
+     * files larger than the address space of a single mapping can be read.
+     */
+    public static final class Reader implements AutoCloseable {
+        private static final long WINDOW_BYTES = 1L << 28;
+        private static final int MAX_GAME_BYTES = 5 + 2 * 256 + 0xFFFF;
+
+        private final FileChannel channel;
+        private final long length;
+        private ByteBuffer window;
+        private long windowStart;  // Position of the window in the file
+
+        /**
+         * Opens a game file.
+         * @throws IOException if the file can not be read or is not a game file.
+         */
+        public Reader(String file) throws IOException {
+            channel = FileChannel.open(Path.of(file), StandardOpenOption.READ);
+            length = channel.size();
+            map(0);
+            if (window.remaining() < 8 || window.getInt() != MAGIC || window.getInt() != VERSION) {
+                channel.close();
+                throw new IOException(file + " is not a game file");
+            }
+        }
+
+        /**
+         * Returns the next game, or null at the end of the file.
+         * @throws IOException if the file ends in the middle of a game.
+         */
+        public GameRecord next() throws IOException {
+            long position = windowStart + window.position();
+            if (position == length)
+                return null;
+            // A game never crosses the end of the window, which is moved on before a game that might
+            if (window.remaining() < MAX_GAME_BYTES && windowStart + window.limit() < length)
+                map(position);
+            if (window.remaining() < 5)
+                throw new IOException("The file ends in the middle of a game");
+            int size = window.get() & 0xFF;
+            int result = window.getShort();
+            int moveCount = window.getShort() & 0xFFFF;
+            String black = readName();
+            String white = readName();
+            if (window.remaining() < moveCount)
+                throw new IOException("The file ends in the middle of a game");
+            int[] moves = new int[moveCount];
+            for (int i = 0; i < moveCount; i++) {
+                int move = window.get() & 0xFF;
+                moves[i] = move == PASS_BYTE ? PASS : move;
+            }
+            return new GameRecord(size, black, white, moves, result);
+        }
+
+        private String readName() throws IOException {
+            if (window.remaining() < 1)
+                throw new IOException("The file ends in the middle of a game");
+            int length = window.get() & 0xFF;
+            if (window.remaining() < length)
+                throw new IOException("The file ends in the middle of a game");
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, length - position));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java GameRecord file");
+            System.exit(1);
+        }
+        long games = 0;
+        long moves = 0;
+        long[] results = new long[3]; // Black wins, white wins and draws
+        long mismatches = 0;          // Games whose replay does not end with their result
+        long start = System.nanoTime();
+        try (var reader = new Reader(args[0])) {
+            for (GameRecord game = reader.next(); game != null; game = reader.next()) {
+                int[] tokens = game.replay().countTokens();
+                if (tokens[0] - tokens[1] != game.result)
+                    mismatches++;
+                games++;
+                moves += game.getMoveCount();
+                results[game.result > 0 ? 0 : (game.result < 0 ? 1 : 2)]++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games, %d moves: black won %d, white won %d, %d draws%n", games, moves, results[0],
+                results[1], results[2]);
+        if (mismatches > 0)
+            System.out.printf("%d games do not end with their recorded result%n", mismatches);
+        System.out.printf("Replayed in %.1f s, %.0f games/s, %.0f moves/s%n", seconds, games / seconds, moves / seconds);
+    }
+}
@@ -1,8 +1,14 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Class to represent the state of a game of Othello.  The state is defined by a 2-dimensional
- * board and whose turn it is. 
+ * board and whose turn it is. On 8x8 boards the tokens are also kept in two bitboards (see BitBoard),
+ * which are used for move generation and for turning tokens; other sizes use the board array only.
+ * A GameState is not thread-safe while it changes: a state that is being changed must only be used by
+ * the thread changing it. A state that no thread changes can be queried from several threads at once,
+ * including isFinished, mustPass, getMobility and legalMoves, which fill a cache of the legal moves (see
+ * mobility).
  * @author Mai Ajspur
  * @version 9.2.2018
  */
@@ -10,6 +16,30 @@ public class GameState {
 	private int[][] board; 		// Possible values: 0 (empty), 1 (black), 2 (white)
 	private int currentPlayer; 	// The player who is next to put a token on the board. Value is 1 or 2.
 	private int size;  			// The number of columns = the number of rows on the board
+	private boolean bitboard;	// True if the board is 8x8 and the bitboards below are in use
+	private long black;			// Bitboard of the tokens of player 1 (see BitBoard), only used if bitboard is true
+	private long white;			// Bitboard of the tokens of player 2, only used if bitboard is true
+	private int[] flipStack = new int[64];	// Squares (col*size+row) turned by applyMove on non-8x8 boards
+	private int flipTop;					// Number of squares on flipStack
+	private long[] zobrist;		// Zobrist keys for this board size (see Zobrist)
+	private long hash;			// Zobrist hash of the tokens and the player in turn, updated on every change
+	private int[] tokens = new int[3];		// Number of tokens of player 1 and 2 (at index 1 and 2)
+	private int[] positional = new int[3];	// Sum of the positional weights of the tokens of player 1 and 2
+	private int[] weights;		// Positional weight of each square (see positionalWeights)
+	// Legal moves of player 1 and 2: the move bitboard on 8x8 boards, otherwise their number. Computed
+	// when needed and reset on every change; volatile so that threads querying the same state see either
+	// UNKNOWN or the whole value
+	private volatile long mobility1 = UNKNOWN;
+	private volatile long mobility2 = UNKNOWN;
+	
+	/** Returned by applyMove if the move is not legal. */
+	public static final long ILLEGAL_MOVE = -1L;
+	
+	// Marks a mobility that has not been computed. No move bitboard has every square set, as a move needs
+	// a token already on the board.
+	private static final long UNKNOWN = -1L;
+	
+	private static int[][] weightTables = new int[0][]; // Positional weights by board size
 	
 	//************ Constructors ****************//
 	/**
@@ -29,6 +59,9 @@ public class GameState {
         board[half+1][half+1] = 1;
         board[half][half+1] = 2;
         board[half+1][half] = 2;   
+        initBitboards();
+        initHash();
+        initCounts();
 	}
 	
 	/**
@@ -47,6 +80,102 @@ public class GameState {
 			}
 		}
 		this.currentPlayer = playerToTakeTurn;
+		initBitboards();
+		initHash();
+		initCounts();
+	}
+	
+	/**
+	 * Returns the 8x8 game state with the tokens of the given bitboards (see BitBoard), in which the given
+	 * player takes the next turn.
+	 * @param black Bitboard of the tokens of black (player 1)
+	 * @param white Bitboard of the tokens of white (player 2), disjoint from black
+	 * @param playerToTakeTurn The player who will be the first to take a turn. Should be 1 (black)
+	 * or 2 (white)
+	 */
+	public static GameState fromBitboards(long black, long white, int playerToTakeTurn){
+		int[][] board = new int[BitBoard.SIZE][BitBoard.SIZE];
+		for (int sq = 0; sq < 64; sq++){
+			if ( (black >>> sq & 1) != 0 )
+				board[sq / 8][sq % 8] = 1;
+			else if ( (white >>> sq & 1) != 0 )
+				board[sq / 8][sq % 8] = 2;
+		}
+		return new GameState(board, playerToTakeTurn);
+	}
+	
+	/**
+	 * Sets up the bitboards from the board array if the board is 8x8. Other sizes only use the array.
+	 */
+	private void initBitboards(){
+		bitboard = size == BitBoard.SIZE;
+		if ( !bitboard )
+			return;
+		black = 0;
+		white = 0;
+		for (int i = 0; i < size; i++){
+			for (int j = 0; j < size; j++){
+				if ( board[i][j] == 1 )
+					black |= 1L << BitBoard.square(i, j);
+				else if ( board[i][j] == 2 )
+					white |= 1L << BitBoard.square(i, j);
+			}
+		}
+	}
+	
+	/**
+	 * Computes the Zobrist hash of the board and the player in turn from scratch.
+	 */
+	private void initHash(){
+		zobrist = Zobrist.keys(size);
+		hash = currentPlayer == 2 ? Zobrist.SIDE : 0;
+		for (int i = 0; i < size; i++){
+			for (int j = 0; j < size; j++){
+				if ( board[i][j] != 0 )
+					hash ^= zobrist[(i*size+j)*2 + board[i][j]-1];
+			}
+		}
+	}
+	
+	/**
+	 * Counts the tokens and sums their positional weights from scratch.
+	 */
+	private void initCounts(){
+		weights = positionalWeights(size);
+		for (int i = 0; i < size; i++){
+			for (int j = 0; j < size; j++){
+				if ( board[i][j] != 0 ){
+					tokens[board[i][j]]++;
+					positional[board[i][j]] += weights[i*size+j];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the positional weights of the squares (col*size+row) of a board of the given size: 9 for a
+	 * corner, 2 for an edge square that is not next to a corner and 0 for the rest. These are the fixed
+	 * square values of SmartAI.Utility, summed per player by getPositionalScore.
+	 */
+	static synchronized int[] positionalWeights(int size){
+		if ( weightTables.length <= size )
+			weightTables = Arrays.copyOf(weightTables, size+1);
+		if ( weightTables[size] == null ){
+			int[] w = new int[size*size];
+			int last = size-1;
+			for (int i = 0; i < size; i++){
+				for (int j = 0; j < size; j++){
+					boolean colEdge = i == 0 || i == last;
+					boolean rowEdge = j == 0 || j == last;
+					if ( colEdge && rowEdge )
+						w[i*size+j] = 9;
+					else if ( (colEdge && j >= 2 && j <= last-2) || (rowEdge && i >= 2 && i <= last-2) )
+						w[i*size+j] = 2;
+				}
+			}
+			weightTables[size] = w;
+		}
+		return weightTables[size];
 	}
 	
 	//************ Getter methods *******************//
@@ -64,12 +193,53 @@ public class GameState {
 		return currentPlayer;
 	}
 
+	/**
+	 * Returns the number of columns (and rows) of the board.
+	 */
+	public int getSize(){
+		return size;
+	}
+
+	/**
+	 * Returns the bitboard (see BitBoard) of the tokens of the given player on an 8x8 board.
+	 * @throws IllegalStateException if the board is not 8x8.
+	 */
+	public long getBitboard(int player){
+		if ( !bitboard )
+			throw new IllegalStateException("Bitboards are only available on 8x8 boards");
+		return player == 1 ? black : white;
+	}
+
+	/**
+	 * Returns the number of tokens of the given player. It is kept up to date as tokens are inserted and turned.
+	 */
+	public int getTokens(int player){
+		return tokens[player];
+	}
+
+	/**
+	 * Returns the sum of the positional weights (see positionalWeights) of the squares holding a token of the
+	 * given player. It is kept up to date as tokens are inserted and turned.
+	 */
+	public int getPositionalScore(int player){
+		return positional[player];
+	}
+
+	/**
+	 * Returns the Zobrist hash of this state. Equal states (same tokens and same player in turn) have equal
+	 * hashes. The hash is kept up to date incrementally as tokens are inserted and turned.
+	 */
+	public long getHash(){
+		return hash;
+	}
+
 	//************* Methods ****************//
 	/**
 	 * Skips the turn of the current player (without) changing the board.
 	 */
 	public void changePlayer(){
 		currentPlayer = currentPlayer == 1 ? 2 : 1;
+		hash ^= Zobrist.SIDE;
 	}
 	
 	/**
@@ -77,17 +247,23 @@ public class GameState {
 	 * and false otherwise.
 	 */
 	public boolean isFinished(){
-		if ( !legalMoves().isEmpty() )
-			return false;
-		else{ //current player has no legal moves
-			changePlayer();
-			if ( legalMoves().isEmpty() ) //next player also has no legal moves
-				return true;
-			else{
-				changePlayer();
-				return false;
-			}
-		}
+		return mobility(currentPlayer) == 0 && mobility(currentPlayer == 1 ? 2 : 1) == 0;
+	}
+	
+	/**
+	 * Returns true if the current player has no legal moves but the opponent has, so the current player
+	 * has to pass (with changePlayer).
+	 */
+	public boolean mustPass(){
+		return mobility(currentPlayer) == 0 && mobility(currentPlayer == 1 ? 2 : 1) != 0;
+	}
+	
+	/**
+	 * Returns the number of legal moves of the given player in this position, no matter whose turn it is.
+	 */
+	public int getMobility(int player){
+		long mobility = mobility(player);
+		return bitboard ? Long.bitCount(mobility) : (int) mobility;
 	}
 	
 	/**
@@ -95,17 +271,7 @@ public class GameState {
 	 * with the numbers in that order.
 	 */
 	public int[] countTokens(){
-    	int tokens1 = 0;
-    	int tokens2 = 0;
-    	for (int i = 0; i < size; i++){
-    		for (int j = 0; j < size; j++){
-    			if ( board[i][j] == 1 )
-    				tokens1++;
-    			else if ( board[i][j] == 2 )
-    				tokens2++;
-    		}
-    	}
-    	return new int[]{tokens1, tokens2};
+		return new int[]{tokens[1], tokens[2]};
 	}
 	
 	/**
@@ -118,23 +284,25 @@ public class GameState {
     		return false;
     	if ( board[place.col][place.row] != 0 ) // The position is not empty
     		return false;
+    	if ( bitboard )
+    		return applyBitboard(BitBoard.square(place.col, place.row)) != 0;
 
     	boolean capturesFound = false;
     	// Capturing all possible opponents of the current player
     	for (int deltaX = -1; deltaX <= 1; deltaX++){
     		for (int deltaY = -1; deltaY <= 1; deltaY++){
-        		int captives = captureInDirection(place, deltaX, deltaY); 
+        		int captives = captureInDirection(place.col, place.row, deltaX, deltaY, currentPlayer); 
         		if ( captives > 0){
         			capturesFound = true;
         			for ( int i = 1; i <= captives; i++)
-        				board[place.col+deltaX*i][place.row+deltaY*i]=currentPlayer;
+        				turnToken((place.col+deltaX*i)*size + place.row+deltaY*i, currentPlayer);
         		}
         	}		
     	}
     	
     	if ( capturesFound ){
     		// Place the token at the given place
-    		board[place.col][place.row] = currentPlayer;
+    		putToken(place.col*size+place.row, currentPlayer);
     		this.changePlayer();
     		return true;
     	}
@@ -143,44 +311,253 @@ public class GameState {
     	}
     }
 
+    /**
+     * Like insertToken, but returns a record of the turned tokens that undoMove can use to take the move
+     * back again, or ILLEGAL_MOVE if the move is not legal. This lets a search play and take back moves on
+     * a single state instead of copying the board for every move. Moves must be undone in the reverse
+     * order of which they were applied.
+     */
+    public long applyMove(Position place){
+    	if ( place.col < 0 || place.row < 0 || place.col >= size || place.row >= size ) //not a position on the board
+    		return ILLEGAL_MOVE;
+    	return applyMove(place.col*size+place.row);
+    }
+
+    /**
+     * applyMove for a square numbered col*size+row, as filled in by legalMoves(int[]).
+     */
+    public long applyMove(int square){
+    	int placeCol = square / size;
+    	int placeRow = square % size;
+    	if ( board[placeCol][placeRow] != 0 ) // The position is not empty
+    		return ILLEGAL_MOVE;
+    	if ( bitboard ){
+    		long flips = applyBitboard(square);
+    		return flips != 0 ? flips : ILLEGAL_MOVE;
+    	}
+
+    	// On the array path the record is the height of the flip stack before the move
+    	int record = flipTop;
+    	for (int deltaX = -1; deltaX <= 1; deltaX++){
+    		for (int deltaY = -1; deltaY <= 1; deltaY++){
+    			int captives = captureInDirection(placeCol, placeRow, deltaX, deltaY, currentPlayer);
+    			for ( int i = 1; i <= captives; i++){
+    				int col = placeCol+deltaX*i;
+    				int row = placeRow+deltaY*i;
+    				turnToken(col*size+row, currentPlayer);
+    				if ( flipTop == flipStack.length )
+    					flipStack = Arrays.copyOf(flipStack, flipTop*2);
+    				flipStack[flipTop++] = col*size+row;
+    			}
+    		}
+    	}
+    	if ( flipTop == record )
+    		return ILLEGAL_MOVE;
+    	putToken(square, currentPlayer);
+    	this.changePlayer();
+    	return record;
+    }
+
+    /**
+     * Takes back the move at the given place, which must be the latest move applied with applyMove, using
+     * the record that applyMove returned.
+     */
+    public void undoMove(Position place, long record){
+    	undoMove(place.col*size+place.row, record);
+    }
+
+    /**
+     * undoMove for a square numbered col*size+row.
+     */
+    public void undoMove(int square, long record){
+    	this.changePlayer();
+    	int opponent = (currentPlayer == 1 ? 2 : 1);
+    	removeToken(square, currentPlayer);
+    	if ( bitboard ){
+    		long placed = 1L << square;
+    		if ( currentPlayer == 1 ){
+    			black &= ~(placed | record);
+    			white |= record;
+    		}
+    		else {
+    			white &= ~(placed | record);
+    			black |= record;
+    		}
+    		for (long b = record; b != 0; b &= b - 1)
+    			turnToken(Long.numberOfTrailingZeros(b), opponent);
+    		return;
+    	}
+    	while ( flipTop > record )
+    		turnToken(flipStack[--flipTop], opponent);
+    }
+
+    /**
+     * Puts a token for the current player at the given square of an 8x8 board and turns the captured tokens.
+     * Returns the turned tokens, or 0 (leaving the state unchanged) if the move captures nothing.
+     */
+    private long applyBitboard(int square){
+    	long flips = currentPlayer == 1 ? BitBoard.flips(black, white, square) : BitBoard.flips(white, black, square);
+    	if ( flips == 0 )
+    		return 0;
+    	long placed = flips | (1L << square);
+    	if ( currentPlayer == 1 ){
+    		black |= placed;
+    		white &= ~placed;
+    	}
+    	else {
+    		white |= placed;
+    		black &= ~placed;
+    	}
+    	for (long b = flips; b != 0; b &= b - 1)
+    		turnToken(Long.numberOfTrailingZeros(b), currentPlayer);
+    	putToken(square, currentPlayer);
+    	this.changePlayer();
+    	return flips;
+    }
+
+    // The three methods below are the only ones that change the board array (apart from the constructors),
+    // and they keep the hash, the token counts and the positional sums in line with it. Every change puts
+    // or removes a token, so those two forget the mobilities. Squares are numbered col*size+row.
+
+    /**
+     * Puts a token of the given player on the given empty square.
+     */
+    private void putToken(int square, int player){
+    	board[square / size][square % size] = player;
+    	hash ^= zobrist[square*2 + player-1];
+    	tokens[player]++;
+    	positional[player] += weights[square];
+    	mobility1 = mobility2 = UNKNOWN;
+    }
+
+    /**
+     * Removes the token of the given player from the given square.
+     */
+    private void removeToken(int square, int player){
+    	board[square / size][square % size] = 0;
+    	hash ^= zobrist[square*2 + player-1];
+    	tokens[player]--;
+    	positional[player] -= weights[square];
+    	mobility1 = mobility2 = UNKNOWN;
+    }
+
+    /**
+     * Turns the token on the given square so it belongs to the given player.
+     */
+    private void turnToken(int square, int player){
+    	board[square / size][square % size] = player;
+    	hash ^= zobrist[square*2] ^ zobrist[square*2 + 1];
+    	int opponent = player == 1 ? 2 : 1;
+    	tokens[player]++;
+    	tokens[opponent]--;
+    	positional[player] += weights[square];
+    	positional[opponent] -= weights[square];
+    }
+
     /**
      * Returns a list of all the positions on the board that constitutes a legal move for the current player.
      */
     public ArrayList<Position> legalMoves(){
-    	ArrayList<Position> posPlaces = new ArrayList<Position>();
-    	for (int i = 0; i < this.size; i++){
-    		for (int j = 0; j < this.size; j++){
-    			if ( board[i][j] == 0 ){
-    				posPlaces.add(new Position(i,j));
-    			}
+    	int[] moves = new int[size*size];
+    	int count = legalMoves(moves);
+    	ArrayList<Position> legalPlaces = new ArrayList<Position>(count);
+    	for (int i = 0; i < count; i++)
+    		legalPlaces.add(new Position(moves[i] / size, moves[i] % size));
+    	return legalPlaces;
+    }
+
+    /**
+     * Fills the given array with the legal moves of the current player and returns how many there are.
+     * Each move is the number col*size+row of its square and is listed once, in the same order as legalMoves().
+     * Nothing is allocated, so a search can reuse the same array for every node on a ply.
+     * @param moves An array of length at least size*size.
+     */
+    public int legalMoves(int[] moves){
+    	int count = 0;
+    	if ( bitboard ){
+    		for (long mask = mobility(currentPlayer); mask != 0; mask &= mask - 1)
+    			moves[count++] = Long.numberOfTrailingZeros(mask);
+    		return count;
+    	}
+    	for (int i = 0; i < size; i++){
+    		for (int j = 0; j < size; j++){
+    			if ( board[i][j] == 0 && capturesFrom(i, j, currentPlayer) )
+    				moves[count++] = i*size+j;
     		}
     	}
-    	ArrayList<Position> legalPlaces = new ArrayList<Position>();
-    	for (Position p: posPlaces){
-    		for (int deltaX = -1; deltaX <= 1; deltaX++){
-    			for (int deltaY = -1; deltaY <= 1; deltaY++){
-    				if ( captureInDirection(p, deltaX, deltaY) > 0 ){
-    	    			legalPlaces.add(p);
-    				}
+    	if ( currentPlayer == 1 )
+    		mobility1 = count;
+    	else
+    		mobility2 = count;
+    	return count;
+    }
+
+    /**
+     * Returns the legal moves of the current player on an 8x8 board as a bitboard (see BitBoard).
+     * @throws IllegalStateException if the board is not 8x8.
+     */
+    public long legalMoveMask(){
+    	if ( !bitboard )
+    		throw new IllegalStateException("Move masks are only available on 8x8 boards");
+    	return mobility(currentPlayer);
+    }
+
+    /**
+     * Returns the legal moves of the given player: the move bitboard on 8x8 boards, otherwise the number of
+     * moves. The result is kept until the board changes, so isFinished, mustPass, getMobility and legalMoves
+     * compute the moves of each player at most once per position. Threads querying a state that is not
+     * being changed may compute the same moves at once; they all write the same value, so that is harmless.
+     */
+    private long mobility(int player){
+    	long mobility = player == 1 ? mobility1 : mobility2;
+    	if ( mobility != UNKNOWN )
+    		return mobility;
+    	if ( bitboard )
+    		mobility = player == 1 ? BitBoard.moves(black, white) : BitBoard.moves(white, black);
+    	else {
+    		mobility = 0;
+    		for (int i = 0; i < size; i++){
+    			for (int j = 0; j < size; j++){
+    				if ( board[i][j] == 0 && capturesFrom(i, j, player) )
+    					mobility++;
     			}
     		}
     	}
-    	return legalPlaces;
-    }	
+    	if ( player == 1 )
+    		mobility1 = mobility;
+    	else
+    		mobility2 = mobility;
+    	return mobility;
+    }
+
+    /**
+     * Returns true if the given player captures any tokens by putting a token at the given (empty) place.
+     */
+    private boolean capturesFrom(int col, int row, int player){
+    	for (int deltaX = -1; deltaX <= 1; deltaX++){
+    		for (int deltaY = -1; deltaY <= 1; deltaY++){
+    			if ( captureInDirection(col, row, deltaX, deltaY, player) > 0 )
+    				return true;
+    		}
+    	}
+    	return false;
+    }
     
     /**
      * Checks how many tokens of the opponent the player can capture in the direction given by deltaX and deltaY
      * if the player puts a token at the given position.
-     * @param p A position on the board
+     * @param col The column of a position on the board
+     * @param row The row of a position on the board
      * @param deltaX The step to be taken in the x-direction. Should be -1 (left), 0 (none), or 1 (right).
      * @param deltaY The step to be taken in the delta direction. Should be -1 (up), 0 (none), or 1 (down).
+     * @param player The player putting the token, 1 (black) or 2 (white).
      */
-    private int captureInDirection(Position p, int deltaX, int deltaY){
-    	int opponent = (currentPlayer == 1 ? 2 : 1); 
+    private int captureInDirection(int col, int row, int deltaX, int deltaY, int player){
+    	int opponent = (player == 1 ? 2 : 1); 
         
     	int captured = 0;
-    	int cc = p.col;
-    	int rr = p.row;
+    	int cc = col;
+    	int rr = row;
         while ( 0 <= cc+deltaX && cc+deltaX < size && 0 <= rr+deltaY && rr+deltaY < size 
     			&& board[cc+deltaX][rr+deltaY] == opponent ){ 
         	cc = cc + deltaX;
@@ -188,7 +565,7 @@ public class GameState {
         	captured++;
         }
         if ( 0 <= cc+deltaX && cc+deltaX < size  && 0 <= rr+deltaY && rr+deltaY < size 
-    			&& board[cc+deltaX][rr+deltaY] == currentPlayer && captured > 0 ){
+    			&& board[cc+deltaX][rr+deltaY] == player && captured > 0 ){
         	return captured;
         }
         else
@@ -0,0 +1,142 @@
+import java.util.Arrays;
+
+/**
+ * Orders the moves of a node in SmartAI's search so the moves most likely to cause a cutoff come
+ * first. In order of precedence the moves are:
+ * the best move stored in the transposition table for the position,
+ * the two killer moves of the ply (moves that recently caused a cutoff at the same depth in the tree),
+ * and then the rest by the history heuristic (how often and how deep a square has caused cutoffs),
+ * with a static table preferring corners and edges and avoiding the squares next to the corners as a
+ * tie-break while the history is still empty.
+ *
+ * Each search thread has its own MoveOrderer. It also counts the cutoffs and how many of them were
+ * caused by the first move searched, which is high when the ordering works.
+ */
+class MoveOrderer {
+
+    private static final int HASH_MOVE_SCORE = 1 << 30;
+    private static final int KILLER_1_SCORE = 1 << 29;
+    private static final int KILLER_2_SCORE = 1 << 28;
+    private static final int HISTORY_LIMIT = 1 << 26; // The history is halved when a square reaches this
+
+    private int size;
+    private int[] priority;   // Static priority of each square (col*size+row)
+    private int[] history;    // History score of each square
+    private int[][] killers;  // The two killer moves of each ply, -1 for none
+    private int[][] scores;   // Sort keys of the moves of each ply
+
+    // Statistics
+    long cutoffs;
+    long firstMoveCutoffs;
+
+    /**
+     * Makes sure the tables fit a board of the given size and a search of the given depth.
+     */
+    void ensureTables(int size, int depthLimit) {
+        if (this.size != size || killers == null || killers.length < depthLimit) {
+            this.size = size;
+            priority = staticPriorities(size);
+            history = new int[size * size];
+            killers = new int[depthLimit][2];
+            scores = new int[depthLimit][size * size];
+            for (int[] k : killers)
+                Arrays.fill(k, -1);
+        }
+    }
+
+    /**
+     * Starts a new search: the killers are cleared and the history of earlier searches is halved.
+     */
+    void newSearch() {
+        if (killers == null)
+            return;
+        for (int[] k : killers)
+            Arrays.fill(k, -1);
+        for (int i = 0; i < history.length; i++)
+            history[i] >>= 1;
+    }
+
+    /**
+     * Sorts the first count moves so the most promising come first.
+     * @param hashMove The move from the transposition table, or -1 if there is none
+     * @param ply The ply of the node, i.e. its distance from the root
+     */
+    void order(int[] moves, int count, int hashMove, int ply) {
+        int[] score = scores[ply];
+        int killer1 = killers[ply][0];
+        int killer2 = killers[ply][1];
+        for (int i = 0; i < count; i++) {
+            int m = moves[i];
+            if (m == hashMove)
+                score[i] = HASH_MOVE_SCORE;
+            else if (m == killer1)
+                score[i] = KILLER_1_SCORE;
+            else if (m == killer2)
+                score[i] = KILLER_2_SCORE;
+            else
+                score[i] = history[m] + priority[m];
+        }
+        // Insertion sort, as there are rarely more than 15 moves
+        for (int i = 1; i < count; i++) {
+            int m = moves[i];
+            int s = score[i];
+            int j = i - 1;
+            while (j >= 0 && score[j] < s) {
+                moves[j + 1] = moves[j];
+                score[j + 1] = score[j];
+                j--;
+            }
+            moves[j + 1] = m;
+            score[j + 1] = s;
+        }
+    }
+
+    /**
+     * Records that the given move caused a cutoff at the given ply with the given remaining depth.
+     * @param index The index of the move among the ordered moves
+     */
+    void cutoff(int move, int index, int ply, int depth) {
+        cutoffs++;
+        if (index == 0)
+            firstMoveCutoffs++;
+        int[] k = killers[ply];
+        if (k[0] != move) {
+            k[1] = k[0];
+            k[0] = move;
+        }
+        history[move] += depth * depth;
+        if (history[move] > HISTORY_LIMIT) {
+            for (int i = 0; i < history.length; i++)
+                history[i] >>= 1;
+        }
+    }
+
+    /**
+     * Returns the static priorities of the squares of a board of the given size: corners are best,
+     * the other edge squares are good, and the squares next to the corners (which tend to give the
+     * corner away) are bad.
+     */
+    static int[] staticPriorities(int size) {
+        int[] p = new int[size * size];
+        int last = size - 1;
+        for (int col = 0; col < size; col++) {
+            for (int row = 0; row < size; row++) {
+                boolean colEdge = col == 0 || col == last;
+                boolean rowEdge = row == 0 || row == last;
+                boolean colNearEdge = col == 1 || col == last - 1;
+                boolean rowNearEdge = row == 1 || row == last - 1;
+                int value = 0;
+                if (colEdge && rowEdge)
+                    value = 100;    // Corner
+                else if (colNearEdge && rowNearEdge)
+                    value = -100;   // X-square, diagonally next to a corner
+                else if ((colEdge && rowNearEdge) || (rowEdge && colNearEdge))
+                    value = -50;    // C-square, next to a corner on the edge
+                else if (colEdge || rowEdge)
+                    value = 20;     // Other edge square
+                p[col * size + row] = value;
+            }
+        }
+        return p;
+    }
+}
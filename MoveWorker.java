@@ -0,0 +1,148 @@
+import javax.swing.SwingWorker;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Computes the move of an AI on a background thread, so the Swing event dispatch thread stays free to
+ * repaint and handle input while the AI thinks. The progress of a SmartAI search (depth, best move so far
+ * and speed) and the move itself are passed to a Listener on the event dispatch thread.
+ *
+ * A SmartAI can be forced to move early, in which case it plays the best move found so far. Any AI can be
+ * cancelled, in which case its move is thrown away when it comes. The worker is only done when the AI has
+ * returned, also when it is cancelled, so the AI is not asked for another move while it still thinks.
+ */
+class MoveWorker extends SwingWorker<Position, MoveWorker.Progress> {
+
+    /**
+     * The state of a SmartAI search after one of its iterations.
+     */
+    static final class Progress {
+        final int depth;
+        final Position move;
+        final int score;
+        final long nodes;
+        final long nanos;
+
+        Progress(int depth, Position move, int score, long nodes, long nanos) {
+            this.depth = depth;
+            this.move = move;
+            this.score = score;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        /** Returns the nodes per second of the search so far. */
+        double nodesPerSecond() {
+            return nanos > 0 ? nodes * 1e9 / nanos : 0;
+        }
+    }
+
+    /**
+     * Receives the progress and the result of a MoveWorker, on the event dispatch thread.
+     */
+    interface Listener {
+        void progress(Progress progress);
+
+        /** Called with the move of the AI, unless the worker was cancelled. */
+        void moveFound(Position move);
+
+        /** Called if the AI threw an exception, unless the worker was cancelled. */
+        void failed(Throwable cause);
+
+        /** Called when the AI of a cancelled worker has returned, so it can be used again. */
+        void cancelled();
+    }
+
+    private final IOthelloAI ai;
+    private final GameState state;
+    private final Listener listener;
+    private volatile boolean stopped; // Set by stop. The SwingWorker itself is not cancelled, see stop
+
+    /**
+     * Creates a worker computing the move of the AI in the given state. The AI gets its own copy of the
+     * state, so the game can be painted while it thinks. Start the worker with execute.
+     */
+    MoveWorker(IOthelloAI ai, GameState state, Listener listener) {
+        this.ai = ai;
+        this.state = new GameState(state.getBoard(), state.getPlayerInTurn());
+        this.listener = listener;
+    }
+
+    /**
+     * Returns true if the AI can be forced to move early.
+     */
+    boolean canForce() {
+        return ai instanceof SmartAI;
+    }
+
+    /**
+     * Makes a SmartAI play the best move it has found so far. Has no effect on other AIs.
+     */
+    void force() {
+        if (ai instanceof SmartAI)
+            ((SmartAI) ai).stop();
+    }
+
+    /**
+     * Stops the AI if it is a SmartAI and makes sure the listener gets neither its move nor its progress,
+     * but cancelled once the AI has returned. The SwingWorker is not cancelled, as that would call done
+     * at once, while the AI still thinks, and the AI is not interrupted, as it may not expect it.
+     */
+    void stop() {
+        stopped = true;
+        force();
+    }
+
+    /**
+     * Returns true if the worker has been stopped.
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    @Override
+    protected Position doInBackground() {
+        if (stopped)
+            return null;
+        if (ai instanceof SmartAI) {
+            var smartAI = (SmartAI) ai;
+            smartAI.setProgressListener((depth, move, score, nodes, nanos) -> {
+                // A stop that came before the search started is repeated after its first iteration
+                if (stopped)
+                    smartAI.stop();
+                publish(new Progress(depth, move, score, nodes, nanos));
+            });
+        }
+        try {
+            return ai.decideMove(state);
+        }
+        finally {
+            if (ai instanceof SmartAI)
+                ((SmartAI) ai).setProgressListener(null);
+        }
+    }
+
+    @Override
+    protected void process(List<Progress> chunks) {
+        if (!stopped)
+            listener.progress(chunks.get(chunks.size() - 1));
+    }
+
+    @Override
+    protected void done() {
+        if (stopped) {
+            listener.cancelled();
+            return;
+        }
+        try {
+            listener.moveFound(get());
+        }
+        catch (ExecutionException e) {
+            listener.failed(e.getCause());
+        }
+        catch (InterruptedException e) {
+            // Can not happen, as the worker is done
+            Thread.currentThread().interrupt();
+        }
+    }
+}
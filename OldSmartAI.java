@@ -7,6 +7,9 @@
  */
 public class OldSmartAI implements IOthelloAI{
 
+    // Printing every node dominates the run time, so it is only done with -Doldsmartai.trace=true
+    private static final boolean TRACE = Boolean.getBoolean("oldsmartai.trace");
+
 	/**
 	 * Returns first legal move
 	 */
@@ -32,10 +35,13 @@ public class OldSmartAI implements IOthelloAI{
             return new UtilMove(Utility(state, player), null);
         }
         int v = Integer.MIN_VALUE;
-        var moves = state.legalMoves();
+        int size = state.getSize();
+        int[] moves = new int[size * size];
+        int moveCount = state.legalMoves(moves);
         Position move = null;
 
-        for (var m : moves) {
+        for (int i = 0; i < moveCount; i++) {
+            var m = new Position(moves[i] / size, moves[i] % size);
             var newState = new GameState(state.getBoard(), state.getPlayerInTurn());
             if (!newState.insertToken(m)) break;
             
@@ -49,13 +55,13 @@ public class OldSmartAI implements IOthelloAI{
             }
             if (v >= beta) {
                 var mo = new UtilMove(v, move);
-                if (mo != null) System.out.println(mo);
+                if (TRACE) System.out.println(mo);
                 return mo;
             }
         }
 
         var m = new UtilMove(v, move);
-        if (m != null) System.out.println(m);
+        if (TRACE) System.out.println(m);
         return m;
     }
 
@@ -74,10 +80,13 @@ public class OldSmartAI implements IOthelloAI{
             return new UtilMove(Utility(state, player), null);
         }
         int v = Integer.MAX_VALUE;
-        var moves = state.legalMoves();
+        int size = state.getSize();
+        int[] moves = new int[size * size];
+        int moveCount = state.legalMoves(moves);
         Position move = null;
 
-        for (var m : moves) {
+        for (int i = 0; i < moveCount; i++) {
+            var m = new Position(moves[i] / size, moves[i] % size);
             var newState = new GameState(state.getBoard(), state.getPlayerInTurn());
             if (!newState.insertToken(m)) break;
             
@@ -89,12 +98,12 @@ public class OldSmartAI implements IOthelloAI{
             }
             if (v <= alpha) {
                 var mo = new UtilMove(v, move);
-                if (mo != null) System.out.println(mo);
+                if (TRACE) System.out.println(mo);
                 return mo;
             }
         }
         var m = new UtilMove(v, move);
-        if (m != null) System.out.println(m);
+        if (TRACE) System.out.println(m);
         return m;
     }
 	
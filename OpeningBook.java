@@ -0,0 +1,273 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An opening book for 8x8 boards: the best move and its score for the positions of the first plies,
+ * found by deep searches in advance, so SmartAI can play them without searching (see
+ * SmartAI.setOpeningBook).
+ *
+ * Positions that are the same up to one of the 8 symmetries of the board share one entry. The key of a
+ * position is the smallest Zobrist hash of its 8 symmetric versions, and the move is stored for the
+ * version with that hash.
+ *
+ * A book file starts with the int "OTPB", the version 1 and the number of entries, followed by the
+ * entries sorted by key, 14 bytes each: the key (long), the score for the player in turn (int), the move
+ * (col*8+row, as a byte) and the depth of the search (byte). Everything is big-endian. The file is
+ * mapped into memory and searched by bisection, so it is never read as a whole.
+ *
+ * The main method builds a book: every move is followed for the first plies, after which only the
+ * best move is followed, and every position on the way is searched by SmartAI to a fixed depth.
+ *
+ * Usage: java OpeningBook [-o file] [-w plies with every move] [-p plies] [-d depth] [-t threads]
+ * Defaults to book.bin, 6 plies with every move, 10 plies in all and depth 10.
+ */
+public class OpeningBook {
+
+    private static final int MAGIC = 0x4F545042; // "OTPB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_BYTES = 14;
+
+    private final ByteBuffer entries;
+    private final int count;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private OpeningBook(ByteBuffer entries, int count) {
+        this.entries = entries;
+        this.count = count;
+    }
+
+    /**
+     * Opens a book file by mapping it into memory.
+     * @throws IOException if the file can not be read or is not a book file.
+     */
+    public static OpeningBook open(String file) throws IOException {
+        try (var channel = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException(file + " is not an opening book");
+            int count = buffer.getInt();
+            if (buffer.remaining() != (long) count * ENTRY_BYTES)
+                throw new IOException(file + " has the wrong length");
+            return new OpeningBook(buffer, count);
+        }
+    }
+
+    /**
+     * Returns the book move (col*8+row) for the player in turn in the given state, or -1 if the position
+     * is not in the book (or the board is not 8x8). Lookups are counted as hits and misses.
+     */
+    public int lookup(GameState state) {
+        int move = -1;
+        if (state.getSize() == BitBoard.SIZE) {
+            long[] key = key(state.getBitboard(1), state.getBitboard(2), state.getPlayerInTurn());
+            long entry = find(key[0]);
+            if (entry >= 0)
+                move = move(state, entries.get((int) entry + 12), (int) key[1]);
+        }
+        if (move == -1)
+            misses.increment();
+        else
+            hits.increment();
+        return move;
+    }
+
+    /**
+     * Returns the score of the book move for the player in turn in the given state, as SmartAI scored it
+     * when the book was built, or 0 if the position is not in the book.
+     */
+    public int score(GameState state) {
+        if (state.getSize() != BitBoard.SIZE)
+            return 0;
+        long entry = find(key(state.getBitboard(1), state.getBitboard(2), state.getPlayerInTurn())[0]);
+        return entry < 0 ? 0 : entries.getInt((int) entry + 8);
+    }
+
+    /**
+     * Returns true if the given state is in the book. Unlike lookup, this is not counted as a hit or miss.
+     */
+    public boolean contains(GameState state) {
+        return state.getSize() == BitBoard.SIZE
+                && find(key(state.getBitboard(1), state.getBitboard(2), state.getPlayerInTurn())[0]) >= 0;
+    }
+
+    /** Returns the number of positions in the book. */
+    public int size() {
+        return count;
+    }
+
+    /** Returns the number of lookups that found a move. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Returns the number of lookups that did not find a move. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Returns the position of the entry with the given key in the buffer, or -1 if there is none
+    private long find(long key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long k = entries.getLong(HEADER_BYTES + mid * ENTRY_BYTES);
+            if (k < key)
+                low = mid + 1;
+            else if (k > key)
+                high = mid - 1;
+            else
+                return HEADER_BYTES + (long) mid * ENTRY_BYTES;
+        }
+        return -1;
+    }
+
+    // Turns a move stored for the version of the position with the smallest hash into a move on the
+    // state itself, or -1 if it is not a legal move there. The symmetry turns the state into that version.
+    private static int move(GameState state, byte stored, int symmetry) {
+        if (stored < 0)
+            return -1;
+        for (int sq = 0; sq < 64; sq++) {
+            if (BitBoard.transform(sq, symmetry) == stored)
+                return (state.legalMoveMask() >>> sq & 1) != 0 ? sq : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the key of the position with the given bitboards and player in turn, which is the smallest
+     * Zobrist hash of its 8 symmetric versions, and the symmetry that gives it: {key, symmetry}.
+     */
+    static long[] key(long black, long white, int player) {
+        long[] zobrist = Zobrist.keys(BitBoard.SIZE);
+        long best = 0;
+        int bestSymmetry = -1;
+        for (int symmetry = 0; symmetry < 8; symmetry++) {
+            long hash = player == 2 ? Zobrist.SIDE : 0;
+            for (long b = BitBoard.transform(black, symmetry); b != 0; b &= b - 1)
+                hash ^= zobrist[Long.numberOfTrailingZeros(b) * 2];
+            for (long b = BitBoard.transform(white, symmetry); b != 0; b &= b - 1)
+                hash ^= zobrist[Long.numberOfTrailingZeros(b) * 2 + 1];
+            if (bestSymmetry == -1 || hash < best) {
+                best = hash;
+                bestSymmetry = symmetry;
+            }
+        }
+        return new long[] { best, bestSymmetry };
+    }
+
+    //************ Building a book ****************//
+
+    public static void main(String[] args) throws Exception {
+        String output = "book.bin";
+        int widePlies = 6;
+        int plies = 10;
+        int depth = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        var options = new Options(args, "Usage: java OpeningBook [-o file] [-w plies with every move] [-p plies] [-d depth] [-t threads]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-o": output = options.value(); break;
+                case "-w": widePlies = options.intValue(); break;
+                case "-p": plies = options.intValue(); break;
+                case "-d": depth = options.intValue(); break;
+                case "-t": threads = options.intValue(); break;
+                default: options.unknown();
+            }
+        }
+        int searchDepth = depth;
+        ThreadLocal<SmartAI> ais = ThreadLocal.withInitial(() -> {
+            var ai = new SmartAI(64);
+            ai.setTimeLimit(0);
+            ai.setMaxDepth(searchDepth);
+            ai.setEndgameEmpties(0);
+            return ai;
+        });
+
+        // Entries by key: {score, move on the version with the smallest hash, depth}
+        Map<Long, int[]> book = new HashMap<>();
+        List<GameState> level = List.of(new GameState(8, 1));
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int ply = 0; ply < plies && !level.isEmpty(); ply++) {
+                // Searches the positions of this ply that are new to the book, in parallel
+                List<GameState> positions = new ArrayList<>();
+                List<Future<int[]>> results = new ArrayList<>();
+                for (GameState state : level) {
+                    long[] key = key(state.getBitboard(1), state.getBitboard(2), state.getPlayerInTurn());
+                    if (book.containsKey(key[0]) || state.legalMoveMask() == 0)
+                        continue;
+                    book.put(key[0], null);
+                    positions.add(state);
+                    results.add(pool.submit(() -> {
+                        var ai = ais.get();
+                        Position move = ai.decideMove(state);
+                        int sq = BitBoard.square(move.col, move.row);
+                        return new int[] { ai.getScore(), BitBoard.transform(sq, (int) key[1]), searchDepth, sq };
+                    }));
+                }
+                List<GameState> next = new ArrayList<>();
+                for (int i = 0; i < positions.size(); i++) {
+                    GameState state = positions.get(i);
+                    int[] result = results.get(i).get();
+                    book.put(key(state.getBitboard(1), state.getBitboard(2), state.getPlayerInTurn())[0], result);
+                    // Every move is followed in the first plies, and only the best one after that
+                    int[] moves = new int[64];
+                    int moveCount = ply < widePlies ? state.legalMoves(moves) : 1;
+                    if (ply >= widePlies)
+                        moves[0] = result[3];
+                    for (int m = 0; m < moveCount; m++) {
+                        var child = new GameState(state.getBoard(), state.getPlayerInTurn());
+                        child.applyMove(moves[m]);
+                        if (child.mustPass())
+                            child.changePlayer();
+                        next.add(child);
+                    }
+                }
+                level = next;
+                System.out.printf("ply %d: %d positions searched, %d in the book, %.1f s%n", ply, positions.size(),
+                        book.size(), (System.nanoTime() - start) / 1e9);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        write(book, output);
+        System.out.println("Book written to " + output);
+    }
+
+    // Writes the entries sorted by key
+    private static void write(Map<Long, int[]> book, String file) throws IOException {
+        List<Long> keys = new ArrayList<>(book.keySet());
+        keys.sort(null);
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.size());
+            for (long key : keys) {
+                int[] entry = book.get(key);
+                out.writeLong(key);
+                out.writeInt(entry[0]);
+                out.writeByte(entry[1]);
+                out.writeByte(Math.min(entry[2], 127));
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Reads the command line options of the tools (Perft, SelfPlay, Tournament...). Options are read in
+ * order with next, followed by their value with value, intValue, longValue or doubleValue; arguments
+ * that are not options are taken with argument. An option without its value (the last argument),
+ * a value that is not a number and an unknown option print the usage and exit with status 1.
+ *
+ * A tool reads its options like this:
+ * <pre>
+ *   var options = new Options(args, "Usage: java Perft [-d depth] [-v]");
+ *   while (options.hasNext()) {
+ *       switch (options.next()) {
+ *           case "-d": depth = options.intValue(); break;
+ *           case "-v": verify = true; break;
+ *           default: options.unknown();
+ *       }
+ *   }
+ * </pre>
+ */
+final class Options {
+
+    private final String[] args;
+    private final String usage;
+    private int index;
+
+    /**
+     * Reads the given arguments. The usage is printed as it is when the arguments are wrong.
+     */
+    Options(String[] args, String usage) {
+        this.args = args;
+        this.usage = usage;
+    }
+
+    /** Returns true if there are arguments left. */
+    boolean hasNext() {
+        return index < args.length;
+    }
+
+    /** Returns the next argument, normally an option. */
+    String next() {
+        return args[index++];
+    }
+
+    /**
+     * Returns the argument returned by next if it is not an option (it does not start with '-'), and
+     * otherwise treats it as an unknown option.
+     */
+    String argument() {
+        String arg = args[index - 1];
+        if (arg.startsWith("-") && arg.length() > 1)
+            unknown();
+        return arg;
+    }
+
+    /** Returns the value of the current option, the next argument. */
+    String value() {
+        if (index == args.length)
+            fail("Missing value for " + args[index - 1]);
+        return args[index++];
+    }
+
+    /** Returns the value of the current option as an int. */
+    int intValue() {
+        String value = value();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw fail(args[index - 2] + " needs a whole number, got " + value);
+        }
+    }
+
+    /** Returns the value of the current option as a long. */
+    long longValue() {
+        String value = value();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw fail(args[index - 2] + " needs a whole number, got " + value);
+        }
+    }
+
+    /** Returns the value of the current option as a double. */
+    double doubleValue() {
+        String value = value();
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw fail(args[index - 2] + " needs a number, got " + value);
+        }
+    }
+
+    /** Prints that the current option is not known and the usage, and exits. */
+    void unknown() {
+        fail("Unknown option " + args[index - 1]);
+    }
+
+    /**
+     * Prints the usage and exits. Call it when the options are complete but do not fit together.
+     */
+    void usage() {
+        fail(null);
+    }
+
+    // Prints the message, unless it is null, and the usage and exits. Returns an exception for the
+    // callers that must end with a throw to compile, which is never reached.
+    private IllegalArgumentException fail(String message) {
+        if (message != null)
+            System.err.println(message);
+        System.err.println(usage);
+        System.exit(1);
+        return new IllegalArgumentException(message);
+    }
+}
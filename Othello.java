@@ -1,5 +1,6 @@
 import javax.swing.*;
 
+import java.awt.BorderLayout;
 import java.io.IOException;
 import java.lang.reflect.*;
 
@@ -82,10 +83,11 @@ public class Othello
 
         	// Setup of the frame containing the game
         	JFrame f = new JFrame();
-        	f.setSize((size+2)*100,(size+2)*100);
+        	f.setSize((size+2)*100,(size+2)*100+40);
         	f.setTitle("Othello");
         	f.setDefaultCloseOperation (JFrame.EXIT_ON_CLOSE);
-        	f.getContentPane().add(g);    
+        	f.getContentPane().add(g, BorderLayout.CENTER);
+        	f.getContentPane().add(g.createControls(), BorderLayout.SOUTH);
         	f.setVisible(true);
         }
         catch (IOException e){
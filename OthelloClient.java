@@ -0,0 +1,186 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client for OthelloServer to test it with: plays games over several connections at once, playing
+ * random moves for black and letting the server play white, and checks every reply against its own copy
+ * of the game. Extra idle connections can be held open during the run, to see that they do not slow the
+ * games down. At the end the server's stats are printed.
+ *
+ * Without a host, the client starts a server in the same JVM on a free port and stops it afterwards.
+ * That server searches with smartai.time=50 unless the smartai.* properties say otherwise.
+ *
+ * Usage: java OthelloClient [-h host] [-p port] [-g games] [-c connections] [-i idle connections] [-s size] [-seed seed]
+ * Defaults to 100 games of 8x8 on 8 connections and no idle connections.
+ */
+public class OthelloClient {
+
+    public static void main(String[] args) throws Exception {
+        String host = null;
+        int port = 7777;
+        int games = 100;
+        int connections = 8;
+        int idle = 0;
+        int size = 8;
+        long seed = 1;
+        var options = new Options(args, "Usage: java OthelloClient [-h host] [-p port] [-g games] [-c connections] [-i idle connections] [-s size] [-seed seed]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-h": host = options.value(); break;
+                case "-p": port = options.intValue(); break;
+                case "-g": games = options.intValue(); break;
+                case "-c": connections = options.intValue(); break;
+                case "-i": idle = options.intValue(); break;
+                case "-s": size = options.intValue(); break;
+                case "-seed": seed = options.longValue(); break;
+                default: options.unknown();
+            }
+        }
+        OthelloServer server = null;
+        if (host == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            server = System.getProperty("smartai.time") == null ? new OthelloServer(threads, 50) : new OthelloServer(threads);
+            port = server.start(0);
+            host = "localhost";
+            System.out.println("Started a server on port " + port);
+        }
+
+        List<Socket> idleSockets = new ArrayList<>();
+        var next = new AtomicInteger();
+        var failures = new AtomicInteger();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        try {
+            for (int i = 0; i < idle; i++)
+                idleSockets.add(new Socket(host, port));
+            List<Future<?>> clients = new ArrayList<>();
+            for (int c = 0; c < connections; c++) {
+                String h = host;
+                int p = port;
+                int total = games;
+                int boardSize = size;
+                var random = new Random(seed * 1000003 + c);
+                clients.add(pool.submit(() -> {
+                    try (var connection = new Connection(h, p)) {
+                        for (int game = next.getAndIncrement(); game < total; game = next.getAndIncrement()) {
+                            try {
+                                play(connection, boardSize, random);
+                            } catch (IllegalStateException e) {
+                                failures.incrementAndGet();
+                                System.err.println("Game " + game + ": " + e.getMessage());
+                            }
+                            if ((game + 1) % 10 == 0)
+                                System.out.printf("%d/%d games, %.1f s%n", game + 1, total, (System.nanoTime() - start) / 1e9);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> client : clients)
+                client.get();
+            try (var connection = new Connection(host, port)) {
+                System.out.println(connection.send("stats"));
+            }
+        }
+        finally {
+            pool.shutdown();
+            for (Socket socket : idleSockets)
+                socket.close();
+            if (server != null)
+                server.close();
+        }
+        System.out.printf("%d games in %.1f s, %d failed%n", games, (System.nanoTime() - start) / 1e9, failures.get());
+        if (failures.get() > 0)
+            System.exit(1);
+    }
+
+    // Plays a game on the connection and checks the replies against a local copy of the game
+    private static void play(Connection connection, int size, Random random) throws IOException {
+        var state = new GameState(size, 1);
+        expect(connection.send("new " + size), "ok " + turn(state));
+        while (!state.isFinished()) {
+            if (state.getPlayerInTurn() == 1) {
+                List<Position> moves = state.legalMoves();
+                Position move = moves.get(random.nextInt(moves.size()));
+                state.insertToken(move);
+                expect(connection.send("move " + move.col + " " + move.row), "ok " + turn(state));
+            }
+            else {
+                String reply = connection.send("go");
+                String[] words = reply.split(" ");
+                if (words.length != 4 || !words[0].equals("move"))
+                    throw new IllegalStateException("Unexpected reply to go: " + reply);
+                if (!state.insertToken(new Position(Integer.parseInt(words[1]), Integer.parseInt(words[2]))))
+                    throw new IllegalStateException("The server played an illegal move: " + reply);
+                expect(words[3], String.valueOf(turn(state)));
+            }
+        }
+        expect(connection.send("board"), "board " + size + " 0 " + squares(state));
+    }
+
+    // Passes for the player in turn if needed and returns the turn as the server reports it
+    private static int turn(GameState state) {
+        if (state.isFinished())
+            return 0;
+        if (state.mustPass())
+            state.changePlayer();
+        return state.getPlayerInTurn();
+    }
+
+    private static String squares(GameState state) {
+        int[][] board = state.getBoard();
+        var squares = new StringBuilder();
+        for (int row = 0; row < state.getSize(); row++) {
+            for (int col = 0; col < state.getSize(); col++)
+                squares.append(".XO".charAt(board[col][row]));
+        }
+        return squares.toString();
+    }
+
+    private static void expect(String reply, String expected) {
+        if (!reply.equals(expected))
+            throw new IllegalStateException("Expected \"" + expected + "\" but the server replied \"" + reply + "\"");
+    }
+
+    /**
+     * A connection to the server, sending one command and reading its reply at a time.
+     */
+    private static final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        Connection(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)), true);
+        }
+
+        String send(String command) throws IOException {
+            out.println(command);
+            String reply = in.readLine();
+            if (reply == null)
+                throw new IOException("The server closed the connection");
+            return reply;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.println("quit");
+            socket.close();
+        }
+    }
+}
@@ -10,6 +10,10 @@ import java.io.IOException;
  * (s)he clicks on the place where (s)he wants to place a token, and when it is the computer's turn, the 
  * player needs to click anywhere in the frame to make the computer take it's turn. The user is made aware
  * of any illegal moves, or when (s)he - or the computer - have to pass because no legal moves are possible.  
+ * The computer thinks on a background thread (see MoveWorker), so the window stays responsive. The controls
+ * below the board show its progress, let it move now or cancel its search, and let the computer move
+ * without clicks (auto play). The moves are recorded, and if the system property othello.record names a
+ * game file, the game is appended to it when it ends (see GameRecord).
  * @author Mai Ajspur
  * @version 9.2.2018
  */
@@ -23,6 +27,14 @@ public class OthelloGUI extends JComponent implements MouseListener
     private boolean humanPlayer;	// Whether a human player is playing or not
     private IOthelloAI ai1;			// The AI for player 1 if there are no human player
     private IOthelloAI ai2;			// The AI for player 2 
+    private MoveWorker worker;		// Computes the move of the AI in turn, null when no AI is thinking
+    private boolean autoPlay;		// Whether the AIs move without a click
+    private GameRecord record;		// The moves of the game so far
+
+    // Controls below the board, see createControls
+    private JLabel status;
+    private JButton forceButton, cancelButton;
+    private JCheckBox autoPlayBox;
 
     // Images for drawing the game board
     private Image 		part, blackPion, whitePion, background;
@@ -61,6 +73,7 @@ public class OthelloGUI extends JComponent implements MouseListener
     	if ( !humanPlayer )
     		this.ai1 = ai1;
     	this.ai2=ai2;
+    	this.record = new GameRecord(size, humanPlayer ? Othello.HUMAN_CMD : ai1.getClass().getName(), ai2.getClass().getName());
     	this.addMouseListener(this);
     }
 
@@ -107,44 +120,172 @@ public class OthelloGUI extends JComponent implements MouseListener
     	}		
     }
 
+    /**
+     * Creates the controls shown below the board: a status line with whose turn it is and the progress
+     * of the AI, buttons to make the AI move now or to cancel its search, and a box to turn on auto play.
+     */
+    public JComponent createControls(){
+    	status = new JLabel();
+    	forceButton = new JButton("Move now");
+    	forceButton.addActionListener(e -> {
+    		if ( worker != null )
+    			worker.force();
+    	});
+    	cancelButton = new JButton("Cancel");
+    	cancelButton.addActionListener(e -> cancelAI());
+    	autoPlayBox = new JCheckBox("Auto play");
+    	autoPlayBox.addActionListener(e -> {
+    		autoPlay = autoPlayBox.isSelected();
+    		if ( autoPlay && worker == null && !state.isFinished() && !isHumanInTurn() )
+    			startAI();
+    	});
+
+    	JPanel buttons = new JPanel();
+    	buttons.add(forceButton);
+    	buttons.add(cancelButton);
+    	buttons.add(autoPlayBox);
+    	JPanel panel = new JPanel(new BorderLayout());
+    	panel.add(status, BorderLayout.CENTER);
+    	panel.add(buttons, BorderLayout.EAST);
+    	updateControls();
+    	return panel;
+    }
+
     public void mouseClicked(MouseEvent e){
+    	if ( state.isFinished() || worker != null ) // Clicks are ignored while an AI thinks
+    		return;
+    	if ( isHumanInTurn() )
+    		play(humanSelectedPlace(e));
+    	else
+    		startAI();
+    }
+
+    /**
+     * Makes the given move for the player in turn, or tells that it is illegal, and starts the next AI 
+     * if auto play is on
+     */
+    private void play(Position place){
     	int currentPlayer = state.getPlayerInTurn();
-    	if ( !state.isFinished() ){
-    		Position place = getPlaceForNextToken(e);
-    		if ( state.insertToken(place) ){ // Chosen move is legal
-				boolean nextPlayerCannotMove = state.legalMoves().isEmpty();
-   				if ( nextPlayerCannotMove ){ // The next player cannot move
-					repaint();
-   					state.changePlayer();
-   					if ( humanPlayer ){ // If there is a human involved, (s)he needs to know this
-   	  					boolean canMoveAfterwards = !state.legalMoves().isEmpty();
-   	   					if ( canMoveAfterwards ){
-   	   						String message = currentPlayer == 1 ? "Your opponent has no legal moves. It is your turn again." 
-   	   													 	    : "You have no legal moves. Your opponent will make another move (click again).";
-   	   						JOptionPane.showMessageDialog(this, message);
-   	   					}  						
-   					}
-   				}
- 			}
-   			else 
-   				illegalMoveAttempted(place); 		
-    		repaint();
+		if ( state.insertToken(place) ){ // Chosen move is legal
+			record.addMove(place);
+			boolean nextPlayerCannotMove = state.legalMoves().isEmpty();
+			if ( nextPlayerCannotMove ){ // The next player cannot move
+				repaint();
+				state.changePlayer();
+				if ( !state.isFinished() )
+					record.addPass();
+				if ( humanPlayer ){ // If there is a human involved, (s)he needs to know this
+					boolean canMoveAfterwards = !state.legalMoves().isEmpty();
+					if ( canMoveAfterwards ){
+						String message = currentPlayer == 1 ? "Your opponent has no legal moves. It is your turn again." 
+															: "You have no legal moves. Your opponent will make another move (click again).";
+						JOptionPane.showMessageDialog(this, message);
+					}
+				}
+			}
+			if ( state.isFinished() )
+				saveRecord();
+			else if ( autoPlay && !isHumanInTurn() )
+				startAI();
+		}
+		else 
+			illegalMoveAttempted(place);
+		repaint();
+		updateControls();
+    }
+
+    /**
+     * Appends the finished game to the game file named by the othello.record property, if there is one
+     */
+    private void saveRecord(){
+    	String file = System.getProperty("othello.record");
+    	if ( file == null || size > GameRecord.MAX_SIZE )
+    		return;
+    	record.finish(state);
+    	try ( var writer = new GameRecord.Writer(file) ){
+    		writer.write(record);
+    	}
+    	catch ( IOException e ){
+    		JOptionPane.showMessageDialog(this, "The game could not be recorded in " + file + ": " + e.getMessage(),
+    			"Record Error", JOptionPane.ERROR_MESSAGE);
     	}
     }
-    
+
+    private boolean isHumanInTurn(){
+    	return humanPlayer && state.getPlayerInTurn() == 1;
+    }
+
     /**
-     * Get a position to place the next token (i.e. read mouse click if human
-     * player is in turn, otherwise ask corresponding AI)
+     * Lets the AI in turn compute its move in the background. The move is played when it comes.
      */
-    private Position getPlaceForNextToken(MouseEvent e){
-    	if ( state.getPlayerInTurn() == 2 ) 
-			return ai2.decideMove(state);
-		else {
-			if ( humanPlayer )
-				return humanSelectedPlace(e);
-			else
-				return ai1.decideMove(state);
-		}
+    private void startAI(){
+    	IOthelloAI ai = state.getPlayerInTurn() == 1 ? ai1 : ai2;
+    	worker = new MoveWorker(ai, state, new MoveWorker.Listener(){
+    		public void progress(MoveWorker.Progress p){
+    			if ( status != null )
+    				status.setText(String.format(" %s is thinking: depth %d, best move %s, score %d, %.0f nodes/s",
+    						playerName(state.getPlayerInTurn()), p.depth, p.move, p.score, p.nodesPerSecond()));
+    		}
+    		public void moveFound(Position move){
+    			worker = null;
+    			play(move);
+    		}
+    		public void failed(Throwable cause){
+    			worker = null;
+    			updateControls();
+    			JOptionPane.showMessageDialog(OthelloGUI.this, "The AI for " + playerName(state.getPlayerInTurn()) 
+    				+ " failed: " + cause + ". Please debug!", "AI Error", JOptionPane.ERROR_MESSAGE);
+    		}
+    		public void cancelled(){
+    			worker = null;
+    			updateControls();
+    		}
+    	});
+    	updateControls();
+    	worker.execute();
+    }
+
+    /**
+     * Cancels the search of the AI in turn and turns auto play off, so the AI only moves again when 
+     * the user clicks. The worker is kept until the AI has returned, so no new search is started before.
+     */
+    private void cancelAI(){
+    	if ( worker == null || worker.isStopped() )
+    		return;
+    	worker.stop();
+    	autoPlay = false;
+    	autoPlayBox.setSelected(false);
+    	updateControls();
+    }
+
+    /**
+     * Shows whose turn it is and enables the buttons that can be used now
+     */
+    private void updateControls(){
+    	if ( status == null ) // The controls were not created
+    		return;
+    	String text;
+    	if ( state.isFinished() ){
+    		int[] tokens = state.countTokens();
+    		text = "Game over: black " + tokens[0] + ", white " + tokens[1];
+    	}
+    	else if ( worker != null && worker.isStopped() )
+    		text = "Cancelling the search of " + playerName(state.getPlayerInTurn());
+    	else if ( worker != null )
+    		text = playerName(state.getPlayerInTurn()) + " is thinking";
+    	else if ( isHumanInTurn() )
+    		text = "Your turn (black)";
+    	else
+    		text = "Click to let " + playerName(state.getPlayerInTurn()) + " move";
+    	status.setText(" " + text);
+    	forceButton.setEnabled(worker != null && !worker.isStopped() && worker.canForce());
+    	cancelButton.setEnabled(worker != null && !worker.isStopped());
+    }
+
+    private String playerName(int player){
+    	IOthelloAI ai = player == 1 ? ai1 : ai2;
+    	String name = player == 1 ? "Black" : "White";
+    	return ai == null ? name : name + " (" + ai.getClass().getSimpleName() + ")";
     }
 
     /**
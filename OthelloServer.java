@@ -0,0 +1,429 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless server hosting many simultaneous games against SmartAI over TCP. All connections are served
+ * by one thread with a Selector, which reads the commands, owns the GameState of every game and writes
+ * the replies, so an idle connection costs a socket and a few buffers but no thread. The searches run on
+ * a pool with a fixed number of threads (one per core by default), each with its own SmartAI, so the CPU
+ * is never oversubscribed however many games are open. SmartAI is configured by the smartai.* system
+ * properties (see SmartAI()), except that pondering is always off.
+ *
+ * The protocol is line based. Every command gets a reply of one line, or "error message":
+ *   new [size]      starts a new game on an empty board (default 8x8) with black in turn, replies "ok 1"
+ *   move col row    plays the move for the player in turn, replies "ok turn"
+ *   go              lets SmartAI play for the player in turn, replies "move col row turn"
+ *   board           replies "board size turn squares", with the squares row by row as '.', 'X' (black)
+ *                   and 'O' (white)
+ *   stats           replies "stats key=value...": the open games, connections, searches waiting for a
+ *                   thread, moves played by the server and the median and 99th percentile time of a go
+ *   quit            replies "bye" and closes the connection
+ * The turn is the player in turn after the move, 1 (black) or 2 (white), or 0 when the game is over. A
+ * player who has no legal move passes automatically. The commands of a connection are answered in order:
+ * while its go is searching, or its replies are not yet sent, its next commands wait. A line may be at
+ * most 1024 bytes long; a longer one is answered with an error and closes the connection.
+ *
+ * Usage: java OthelloServer [-p port] [-t search threads]
+ * Defaults to port 7777 and one search thread per core. See OthelloClient for a client to test with.
+ */
+public class OthelloServer {
+
+    private static final int DEFAULT_PORT = 7777;
+    private static final int MAX_SIZE = 16;
+    private static final int MAX_LINE = 1024;         // The longest command line in bytes
+    private static final int LATENCY_SAMPLES = 10000; // The latest go latencies kept for the percentiles
+
+    private final ThreadPoolExecutor searchPool;
+    private final ThreadLocal<SmartAI> engines;
+    private final Set<SmartAI> allEngines = ConcurrentHashMap.newKeySet(); // Closed with the server
+    // Work handed to the selector thread by the search threads: the results of finished searches
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean closed;
+
+    // Only used by the selector thread
+    private final Set<Session> sessions = new HashSet<>();
+    // Latency of the latest go commands in nanoseconds, as a ring buffer
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long moves;
+
+    /**
+     * Creates a server searching with the given number of threads. It is started with start.
+     */
+    public OthelloServer(int searchThreads) {
+        this(searchThreads, -1);
+    }
+
+    /**
+     * Creates a server searching with the given number of threads and time budget per move in
+     * milliseconds, or the budget of the smartai.time property if it is negative. It is started with start.
+     */
+    public OthelloServer(int searchThreads, long timeLimit) {
+        var threadCount = new AtomicInteger();
+        searchPool = new ThreadPoolExecutor(searchThreads, searchThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    var thread = new Thread(r, "OthelloServer search " + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        engines = ThreadLocal.withInitial(() -> {
+            var ai = new SmartAI();
+            ai.setPondering(false); // Its games are not its own between moves
+            if (timeLimit >= 0)
+                ai.setTimeLimit(timeLimit);
+            allEngines.add(ai);
+            return ai;
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        var options = new Options(args, "Usage: java OthelloServer [-p port] [-t search threads]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-p": port = options.intValue(); break;
+                case "-t": threads = options.intValue(); break;
+                default: options.unknown();
+            }
+        }
+        var server = new OthelloServer(threads);
+        int bound = server.start(port);
+        System.out.printf("Listening on port %d with %d search threads%n", bound, threads);
+    }
+
+    /**
+     * Starts accepting connections on the given port (0 for any free port) on a background thread and
+     * returns the port.
+     */
+    public synchronized int start(int port) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        selectorThread = new Thread(this::serve, "OthelloServer selector");
+        selectorThread.start();
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    public synchronized void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join(); // It closes the connections on its way out
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searchPool.shutdownNow();
+        // The engines are closed once their searches have stopped
+        for (SmartAI ai : allEngines)
+            ai.stop();
+        try {
+            searchPool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SmartAI ai : allEngines)
+            ai.close();
+    }
+
+    // The selector loop: accepts connections, reads and answers commands and sends the results of the
+    // searches, until the server is closed
+    private void serve() {
+        try {
+            while (!closed) {
+                selector.select();
+                Runnable completion;
+                while ((completion = completions.poll()) != null)
+                    completion.run();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isAcceptable())
+                        accept();
+                    else if (key.isValid())
+                        ((Session) key.attachment()).ready(key.isReadable(), key.isWritable());
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            System.err.println("The server stopped: " + e);
+        } finally {
+            for (Session session : new ArrayList<>(sessions))
+                session.close();
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                // Nothing more can be done about it
+            }
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null)
+                return;
+            channel.configureBlocking(false);
+            var session = new Session(channel);
+            session.key = channel.register(selector, SelectionKey.OP_READ, session);
+            sessions.add(session);
+        } catch (IOException e) {
+            System.err.println("Could not accept a connection: " + e);
+        }
+    }
+
+    /**
+     * One connection and its game. Everything in it is only used by the selector thread; a search gets
+     * a copy of the game and hands its move back through the completions.
+     */
+    private final class Session {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ByteBuffer input = ByteBuffer.allocate(MAX_LINE); // Received bytes not yet handled
+        final ArrayDeque<ByteBuffer> output = new ArrayDeque<>(); // Replies not yet sent
+        boolean searching;        // A go is waiting for its move, so the next commands wait
+        boolean quitting;         // The connection is closed once the replies are sent
+        GameState state;          // The game, null before the first new command
+        int turn = -1;            // The result of turn() after the latest command, -1 before the first game
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Reads and sends what the channel is ready for, answers the complete commands if the session is
+        // ready for them, and chooses what to wait for next
+        void ready(boolean readable, boolean writable) {
+            try {
+                if (readable && channel.read(input) < 0) {
+                    close(); // The client went away, which ends its game
+                    return;
+                }
+                if (writable)
+                    flush();
+                String line;
+                while (!searching && !quitting && output.isEmpty() && (line = nextLine()) != null) {
+                    handle(line.trim());
+                    flush();
+                }
+                if (!searching && !quitting && !input.hasRemaining()) {
+                    reply("error the line is longer than " + MAX_LINE + " bytes");
+                    quitting = true;
+                    flush();
+                }
+                if (quitting && output.isEmpty()) {
+                    close();
+                    return;
+                }
+                // Reads no more commands until the current one is answered and its reply sent
+                boolean waiting = searching || quitting || !output.isEmpty();
+                key.interestOps((waiting ? 0 : SelectionKey.OP_READ) | (output.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // Removes the next complete line from the input and returns it, or null if there is none yet
+        private String nextLine() {
+            for (int i = 0; i < input.position(); i++) {
+                if (input.get(i) == '\n') {
+                    String line = new String(input.array(), 0, i, StandardCharsets.UTF_8);
+                    input.flip().position(i + 1);
+                    input.compact();
+                    return line;
+                }
+            }
+            return null;
+        }
+
+        private void reply(String line) {
+            output.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        // Writes as much of the replies as the channel takes without blocking
+        private void flush() throws IOException {
+            while (!output.isEmpty()) {
+                ByteBuffer buffer = output.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining())
+                    return;
+                output.poll();
+            }
+        }
+
+        void close() {
+            sessions.remove(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // It is closed anyway
+            }
+        }
+
+        private void handle(String line) {
+            String[] words = line.split("\\s+");
+            try {
+                switch (words[0].toLowerCase(Locale.ROOT)) {
+                    case "new": reply(newGame(words)); break;
+                    case "move": reply(move(words)); break;
+                    case "go": go(); break;
+                    case "board": reply(board()); break;
+                    case "stats": reply(stats()); break;
+                    case "quit": reply("bye"); quitting = true; break;
+                    default: reply("error unknown command " + words[0]);
+                }
+            } catch (NumberFormatException e) {
+                reply("error not a number: " + e.getMessage());
+            }
+        }
+
+        private String newGame(String[] words) {
+            int size = words.length > 1 ? Integer.parseInt(words[1]) : 8;
+            if (size < 4 || size > MAX_SIZE || size % 2 != 0)
+                return "error the size must be an even number from 4 to " + MAX_SIZE;
+            state = new GameState(size, 1);
+            return "ok " + turn();
+        }
+
+        private String move(String[] words) {
+            if (words.length != 3)
+                return "error usage: move col row";
+            String error = checkPlayable();
+            if (error != null)
+                return error;
+            var move = new Position(Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+            if (!state.insertToken(move))
+                return "error illegal move " + move.col + " " + move.row;
+            return "ok " + turn();
+        }
+
+        // Starts a search on a copy of the game; the reply is sent by played when it has finished
+        private void go() {
+            String error = checkPlayable();
+            if (error != null) {
+                reply(error);
+                return;
+            }
+            var copy = new GameState(state.getBoard(), state.getPlayerInTurn());
+            long start = System.nanoTime();
+            try {
+                searchPool.execute(() -> {
+                    Position move = null;
+                    RuntimeException failure = null;
+                    try {
+                        move = engines.get().decideMove(copy);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    Position result = move;
+                    RuntimeException cause = failure;
+                    completions.add(() -> played(result, cause, System.nanoTime() - start));
+                    selector.wakeup();
+                });
+                searching = true;
+            } catch (RejectedExecutionException e) {
+                reply("error the server is shutting down");
+            }
+        }
+
+        // Plays the move found by the search of go and answers the go, on the selector thread
+        private void played(Position move, RuntimeException failure, long nanos) {
+            if (!channel.isOpen())
+                return; // The client left while its move was searched
+            searching = false;
+            if (failure != null)
+                reply("error the search failed: " + failure);
+            else {
+                recordLatency(nanos);
+                if (!state.insertToken(move))
+                    reply("error the engine played the illegal move " + move.col + " " + move.row);
+                else
+                    reply("move " + move.col + " " + move.row + " " + turn());
+            }
+            ready(false, true);
+        }
+
+        private String board() {
+            if (state == null)
+                return "error no game, use new";
+            int size = state.getSize();
+            int[][] board = state.getBoard();
+            var squares = new StringBuilder(size * size);
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++)
+                    squares.append(".XO".charAt(board[col][row]));
+            }
+            return "board " + size + " " + turn() + " " + squares;
+        }
+
+        private String checkPlayable() {
+            if (state == null)
+                return "error no game, use new";
+            if (state.isFinished())
+                return "error the game is over";
+            return null;
+        }
+
+        // Passes for the player in turn if they have no legal move, and returns the player in turn, or 0
+        // if the game is over
+        private int turn() {
+            if (state.isFinished())
+                turn = 0;
+            else {
+                if (state.mustPass())
+                    state.changePlayer();
+                turn = state.getPlayerInTurn();
+            }
+            return turn;
+        }
+    }
+
+    private String stats() {
+        int games = 0;
+        for (Session session : sessions) {
+            if (session.turn > 0)
+                games++;
+        }
+        long[] sorted = Arrays.copyOf(latencies, (int) Math.min(moves, LATENCY_SAMPLES));
+        Arrays.sort(sorted);
+        return String.format(Locale.ROOT, "stats games=%d connections=%d queue=%d searching=%d moves=%d p50=%.1fms p99=%.1fms",
+                games, sessions.size(), searchPool.getQueue().size(), searchPool.getActiveCount(), moves,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6);
+    }
+
+    private void recordLatency(long nanos) {
+        latencies[(int) (moves % LATENCY_SAMPLES)] = nanos;
+        moves++;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+    }
+}
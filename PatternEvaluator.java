@@ -0,0 +1,283 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pattern-based evaluation of 8x8 positions, used by SmartAI's search instead of Utility when a weight
+ * file is given. The board is covered by 46 overlapping patterns: the edges with their two X-squares,
+ * the 3x3 and 2x5 blocks in the corners, the second to fourth rows and columns, and the diagonals of
+ * length 4 to 8. The contents of a pattern (empty, black or white on each of its squares) form a
+ * number in base 3, which indexes a table of weights for that kind of pattern. There is one set of
+ * tables per game phase (by the number of tokens on the board), and the evaluation is the sum of the
+ * weights of all patterns, from black's point of view.
+ *
+ * Each search thread has its own PatternEvaluator, whose pattern indexes are updated as the search
+ * plays and takes back moves, so evaluating a position is 46 table reads. The weights are shared.
+ */
+class PatternEvaluator {
+
+    /** Number of game phases with their own weights. */
+    static final int PHASES = 12;
+
+    // The shape of each kind of pattern as {col, row} squares. Every kind is used in each of its
+    // distinct rotations and reflections.
+    private static final int[][][] SHAPES = {
+        {{0, 0}, {1, 0}, {2, 0}, {3, 0}, {4, 0}, {5, 0}, {6, 0}, {7, 0}, {1, 1}, {6, 1}},  // Edge and X-squares
+        {{0, 0}, {1, 0}, {2, 0}, {0, 1}, {1, 1}, {2, 1}, {0, 2}, {1, 2}, {2, 2}},          // Corner 3x3
+        {{0, 0}, {1, 0}, {2, 0}, {3, 0}, {4, 0}, {0, 1}, {1, 1}, {2, 1}, {3, 1}, {4, 1}},  // Corner 2x5
+        {{0, 1}, {1, 1}, {2, 1}, {3, 1}, {4, 1}, {5, 1}, {6, 1}, {7, 1}},                  // Second row
+        {{0, 2}, {1, 2}, {2, 2}, {3, 2}, {4, 2}, {5, 2}, {6, 2}, {7, 2}},                  // Third row
+        {{0, 3}, {1, 3}, {2, 3}, {3, 3}, {4, 3}, {5, 3}, {6, 3}, {7, 3}},                  // Fourth row
+        {{0, 0}, {1, 1}, {2, 2}, {3, 3}, {4, 4}, {5, 5}, {6, 6}, {7, 7}},                  // Diagonal of 8
+        {{0, 1}, {1, 2}, {2, 3}, {3, 4}, {4, 5}, {5, 6}, {6, 7}},                          // Diagonal of 7
+        {{0, 2}, {1, 3}, {2, 4}, {3, 5}, {4, 6}, {5, 7}},                                  // Diagonal of 6
+        {{0, 3}, {1, 4}, {2, 5}, {3, 6}, {4, 7}},                                          // Diagonal of 5
+        {{0, 4}, {1, 5}, {2, 6}, {3, 7}},                                                  // Diagonal of 4
+    };
+
+    /** Number of kinds of patterns. */
+    static final int TYPES = SHAPES.length;
+    /** Number of weights of each kind of pattern, 3 to the power of its number of squares. */
+    static final int[] TYPE_SIZES = new int[TYPES];
+    /** Number of patterns on the board. */
+    static final int INSTANCES;
+    /** Kind of each pattern. */
+    static final int[] INSTANCE_TYPE;
+
+    // For each square (col*8+row), the patterns it is part of and its value in their indexes (a power of 3)
+    private static final int[][] SQUARE_INSTANCES = new int[64][];
+    private static final int[][] SQUARE_POWERS = new int[64][];
+
+    // Layout of the weight file
+    private static final int MAGIC = 0x4F545057; // "OTPW"
+    private static final int VERSION = 1;
+
+    static {
+        List<int[]> instances = new ArrayList<>(); // Squares of each pattern
+        List<Integer> types = new ArrayList<>();
+        for (int type = 0; type < TYPES; type++) {
+            TYPE_SIZES[type] = (int) Math.pow(3, SHAPES[type].length);
+            Set<Long> seen = new HashSet<>();
+            for (int symmetry = 0; symmetry < 8; symmetry++) {
+                int[] squares = new int[SHAPES[type].length];
+                long mask = 0;
+                for (int i = 0; i < squares.length; i++) {
+                    squares[i] = BitBoard.transform(BitBoard.square(SHAPES[type][i][0], SHAPES[type][i][1]), symmetry);
+                    mask |= 1L << squares[i];
+                }
+                // Symmetric shapes give the same squares under several symmetries, but are used only once
+                if (seen.add(mask)) {
+                    instances.add(squares);
+                    types.add(type);
+                }
+            }
+        }
+        INSTANCES = instances.size();
+        INSTANCE_TYPE = new int[INSTANCES];
+        List<List<int[]>> bySquare = new ArrayList<>();
+        for (int sq = 0; sq < 64; sq++)
+            bySquare.add(new ArrayList<>());
+        for (int i = 0; i < INSTANCES; i++) {
+            INSTANCE_TYPE[i] = types.get(i);
+            int power = 1;
+            for (int sq : instances.get(i)) {
+                bySquare.get(sq).add(new int[] { i, power });
+                power *= 3;
+            }
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            List<int[]> list = bySquare.get(sq);
+            SQUARE_INSTANCES[sq] = new int[list.size()];
+            SQUARE_POWERS[sq] = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                SQUARE_INSTANCES[sq][i] = list.get(i)[0];
+                SQUARE_POWERS[sq][i] = list.get(i)[1];
+            }
+        }
+    }
+
+    final Weights weights;
+    private final int[] index = new int[INSTANCES]; // Current index of each pattern
+
+    /**
+     * Creates an evaluator using the given weights. It can be created without weights to only compute
+     * the pattern indexes of positions (as the trainer does).
+     */
+    PatternEvaluator(Weights weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Computes the pattern indexes of the given 8x8 state from scratch.
+     */
+    void setPosition(GameState state) {
+        Arrays.fill(index, 0);
+        int[][] board = state.getBoard();
+        for (int col = 0; col < 8; col++) {
+            for (int row = 0; row < 8; row++) {
+                if (board[col][row] != 0)
+                    add(col * 8 + row, board[col][row]);
+            }
+        }
+    }
+
+    /**
+     * Computes the pattern indexes of the position with the given bitboards of black and white (see BitBoard).
+     */
+    void setPosition(long black, long white) {
+        Arrays.fill(index, 0);
+        for (long b = black; b != 0; b &= b - 1)
+            add(Long.numberOfTrailingZeros(b), 1);
+        for (long b = white; b != 0; b &= b - 1)
+            add(Long.numberOfTrailingZeros(b), 2);
+    }
+
+    /**
+     * Updates the indexes after the given player put a token on the square, turning the tokens of the
+     * flips bitboard (the record returned by GameState.applyMove on an 8x8 board).
+     */
+    void play(int square, long flips, int player) {
+        add(square, player);
+        int turn = player == 1 ? -1 : 1; // A turned token goes from 2 to 1 or from 1 to 2
+        for (long b = flips; b != 0; b &= b - 1)
+            add(Long.numberOfTrailingZeros(b), turn);
+    }
+
+    /**
+     * Takes back the update of play.
+     */
+    void undo(int square, long flips, int player) {
+        add(square, -player);
+        int turn = player == 1 ? 1 : -1;
+        for (long b = flips; b != 0; b &= b - 1)
+            add(Long.numberOfTrailingZeros(b), turn);
+    }
+
+    private void add(int square, int digit) {
+        int[] instances = SQUARE_INSTANCES[square];
+        int[] powers = SQUARE_POWERS[square];
+        for (int i = 0; i < instances.length; i++)
+            index[instances[i]] += digit * powers[i];
+    }
+
+    /**
+     * Returns the current index of each pattern. The array is updated in place.
+     */
+    int[] indexes() {
+        return index;
+    }
+
+    /**
+     * Returns the evaluation of the current position for the given player, given the number of tokens on
+     * the board. The score is limited so it stays well below SmartAI.WIN_SCORE.
+     */
+    int evaluate(int tokens, int player) {
+        ShortBuffer[] tables = weights.tables[phase(tokens)];
+        int score = 0;
+        for (int i = 0; i < INSTANCES; i++)
+            score += tables[INSTANCE_TYPE[i]].get(index[i]);
+        score = Math.max(-SmartAI.WIN_SCORE / 2, Math.min(SmartAI.WIN_SCORE / 2, score));
+        return player == 1 ? score : -score;
+    }
+
+    /**
+     * Returns the game phase of a position with the given number of tokens on the board.
+     */
+    static int phase(int tokens) {
+        return Math.max(0, Math.min(PHASES - 1, (tokens - 4) * PHASES / 61));
+    }
+
+    /**
+     * The weight tables of all kinds of patterns for all game phases, as stored in a weight file:
+     * the int "OTPW", the version 1, the number of phases, the number of kinds of patterns and the
+     * number of squares of each kind, followed by the weights as shorts, phase by phase and kind by
+     * kind, each table indexed by the pattern index. Everything is big-endian.
+     */
+    static final class Weights {
+        // Weights by phase and kind of pattern, indexed by the pattern index. Only absolute gets are used,
+        // so the buffers can be read by all search threads at once.
+        final ShortBuffer[][] tables;
+
+        private Weights(ShortBuffer[][] tables) {
+            this.tables = tables;
+        }
+
+        /**
+         * Creates weights from tables by phase, kind of pattern and pattern index, as the Trainer makes them.
+         */
+        Weights(short[][][] tables) {
+            this(new ShortBuffer[tables.length][]);
+            for (int phase = 0; phase < tables.length; phase++) {
+                this.tables[phase] = new ShortBuffer[tables[phase].length];
+                for (int type = 0; type < tables[phase].length; type++)
+                    this.tables[phase][type] = ShortBuffer.wrap(tables[phase][type]);
+            }
+        }
+
+        /**
+         * Loads a weight file by mapping it into memory. The weights are read from the mapping itself
+         * through a view of each table, so they are not copied to the heap, and the operating system
+         * shares the pages between all JVMs that load the same file.
+         * @throws IOException if the file can not be read or was not made for these patterns.
+         */
+        static Weights load(String file) throws IOException {
+            try (var channel = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                    throw new IOException(file + " is not a weight file");
+                if (buffer.getInt() != PHASES || buffer.getInt() != TYPES || buffer.remaining() < 4 * TYPES)
+                    throw new IOException(file + " was made for other patterns");
+                long weights = 0;
+                for (int type = 0; type < TYPES; type++) {
+                    if (buffer.getInt() != SHAPES[type].length)
+                        throw new IOException(file + " was made for other patterns");
+                    weights += TYPE_SIZES[type];
+                }
+                if (buffer.remaining() != 2 * weights * PHASES)
+                    throw new IOException(file + " has the wrong length");
+                ShortBuffer shorts = buffer.asShortBuffer();
+                ShortBuffer[][] tables = new ShortBuffer[PHASES][TYPES];
+                for (int phase = 0; phase < PHASES; phase++) {
+                    for (int type = 0; type < TYPES; type++) {
+                        // A view of the next TYPE_SIZES[type] weights, indexed from 0
+                        int end = shorts.position() + TYPE_SIZES[type];
+                        tables[phase][type] = shorts.limit(end).slice();
+                        shorts.position(end).limit(shorts.capacity());
+                    }
+                }
+                return new Weights(tables);
+            }
+        }
+
+        /**
+         * Writes the weights to a weight file.
+         */
+        void save(String file) throws IOException {
+            try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(PHASES);
+                out.writeInt(TYPES);
+                for (int type = 0; type < TYPES; type++)
+                    out.writeInt(SHAPES[type].length);
+                for (ShortBuffer[] phase : tables) {
+                    for (ShortBuffer table : phase) {
+                        for (int i = 0; i < table.capacity(); i++)
+                            out.writeShort(table.get(i));
+                    }
+                }
+            }
+        }
+    }
+}
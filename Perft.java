@@ -0,0 +1,228 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Perft: counts the leaves of the game tree to a given depth by playing every move sequence, to check
+ * that the move generator is correct and to measure its speed without any evaluation or search.
+ * A pass counts as a move (one ply, made with changePlayer), and a finished game before the depth is
+ * counted as one leaf. The counts of the first plies from the 8x8 start position are known, and -v
+ * checks the move generator against them instead of timing it (see check): it prints every count that
+ * is wrong and exits with status 1, so it can be run as a regression test.
+ *
+ * Usage: java Perft [-d depth] [-s size] [-t threads] [-p board player] [-v]
+ * The board of -p has one character per square, row by row from the top: '.' or '-' for empty,
+ * 'X', 'B' or '1' for player 1 and 'O', 'W' or '2' for player 2. Defaults to depth 9 from the start
+ * position of an 8x8 board with one thread.
+ */
+public class Perft {
+
+    /** Leaf counts of depth 1, 2, ... from the start position of an 8x8 board. */
+    static final long[] REFERENCE_8X8 = {
+        4L, 12L, 56L, 244L, 1396L, 8200L, 55092L, 390216L, 3005288L, 24571284L, 212258800L, 1939886636L
+    };
+
+    private final int[][] moves; // Move buffer of each ply
+    long nodes;                  // Moves and passes played
+
+    private Perft(int size, int depth) {
+        moves = new int[depth + 1][size * size];
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int depth = 9;
+        int size = 8;
+        int threads = 1;
+        boolean verify = false;
+        GameState start = null;
+        var options = new Options(args, "Usage: java Perft [-d depth] [-s size] [-t threads] [-p board player] [-v]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-d": depth = options.intValue(); break;
+                case "-s": size = options.intValue(); break;
+                case "-t": threads = options.intValue(); break;
+                case "-p": start = parse(options.value(), options.intValue()); break;
+                case "-v": verify = true; break;
+                default: options.unknown();
+            }
+        }
+        if (verify) {
+            List<String> errors = check(Math.min(depth, REFERENCE_8X8.length));
+            for (String error : errors)
+                System.err.println(error);
+            if (!errors.isEmpty())
+                System.exit(1);
+            System.out.println("All counts to depth " + Math.min(depth, REFERENCE_8X8.length) + " match the reference");
+            return;
+        }
+        if (start == null)
+            start = new GameState(size, 1);
+
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        System.out.printf("%5s %14s %10s %14s%n", "depth", "leaves", "ms", "nodes/s");
+        for (int d = 1; d <= depth; d++) {
+            long begin = System.nanoTime();
+            long[] result = pool == null ? count(start, d) : countParallel(start, d, pool, threads);
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            System.out.printf("%5d %14d %10.0f %14.0f%n", d, result[0], seconds * 1000, result[1] / seconds);
+        }
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    /**
+     * Checks the move generator against REFERENCE_8X8 for every depth from 1 to the given one, both
+     * through the applyMove and undoMove search of count and through a search that plays insertToken on
+     * copies, and checks that applyMove and undoMove leave the start position (its board and hash) as it
+     * was. Returns a description of every error, or an empty list if there is none.
+     */
+    static List<String> check(int depth) {
+        List<String> errors = new ArrayList<>();
+        var start = new GameState(8, 1);
+        long hash = start.getHash();
+        int[][] board = start.getBoard();
+        var perft = new Perft(8, depth);
+        for (int d = 1; d <= depth; d++) {
+            long expected = REFERENCE_8X8[d - 1];
+            long leaves = perft.perft(start, d, false);
+            if (leaves != expected)
+                errors.add("Depth " + d + ": applyMove counts " + leaves + " leaves, expected " + expected);
+            if (start.getHash() != hash || !Arrays.deepEquals(start.getBoard(), board))
+                errors.add("Depth " + d + ": applyMove and undoMove did not restore the start position");
+            long copied = countCopies(start, d, false);
+            if (copied != expected)
+                errors.add("Depth " + d + ": insertToken counts " + copied + " leaves, expected " + expected);
+        }
+        return errors;
+    }
+
+    // Counts the leaves at the given depth like perft, but by playing insertToken on a copy of the state
+    // for every move, as the GUI does
+    private static long countCopies(GameState state, int depth, boolean passed) {
+        if (depth == 0)
+            return 1;
+        var legal = state.legalMoves();
+        if (legal.isEmpty()) {
+            if (passed)
+                return 1;
+            var copy = new GameState(state.getBoard(), state.getPlayerInTurn());
+            copy.changePlayer();
+            return countCopies(copy, depth - 1, true);
+        }
+        long leaves = 0;
+        for (Position p : legal) {
+            var copy = new GameState(state.getBoard(), state.getPlayerInTurn());
+            copy.insertToken(p);
+            leaves += countCopies(copy, depth - 1, false);
+        }
+        return leaves;
+    }
+
+    /**
+     * Returns the number of leaves at the given depth below the state and the number of nodes visited.
+     */
+    static long[] count(GameState state, int depth) {
+        var perft = new Perft(state.getSize(), depth);
+        var copy = new GameState(state.getBoard(), state.getPlayerInTurn());
+        long leaves = perft.perft(copy, depth, false);
+        return new long[] { leaves, perft.nodes };
+    }
+
+    // Splits the tree at the first ply with enough positions to keep the threads busy and counts
+    // each of those subtrees as a task of its own
+    private static long[] countParallel(GameState state, int depth, ExecutorService pool, int threads)
+            throws InterruptedException, ExecutionException {
+        List<GameState> frontier = List.of(new GameState(state.getBoard(), state.getPlayerInTurn()));
+        long finished = 0; // Games that ended before the split ply, each one leaf
+        long nodes = 0;
+        int ply = 0;
+        while (ply < depth && frontier.size() < 4 * threads) {
+            List<GameState> next = new ArrayList<>();
+            for (GameState s : frontier) {
+                var legal = s.legalMoves();
+                if (legal.isEmpty()) {
+                    if (s.isFinished()) {
+                        finished++;
+                        continue;
+                    }
+                    var passed = new GameState(s.getBoard(), s.getPlayerInTurn());
+                    passed.changePlayer();
+                    next.add(passed);
+                }
+                for (Position p : legal) {
+                    var child = new GameState(s.getBoard(), s.getPlayerInTurn());
+                    child.insertToken(p);
+                    next.add(child);
+                }
+            }
+            frontier = next;
+            nodes += next.size();
+            ply++;
+        }
+        int remaining = depth - ply;
+        List<Future<long[]>> results = new ArrayList<>();
+        for (GameState s : frontier)
+            results.add(pool.submit(() -> count(s, remaining)));
+        long leaves = finished;
+        for (Future<long[]> f : results) {
+            long[] r = f.get();
+            leaves += r[0];
+            nodes += r[1];
+        }
+        return new long[] { leaves, nodes };
+    }
+
+    // Counts the leaves at the given depth; passed tells if the move leading here was a pass
+    private long perft(GameState state, int depth, boolean passed) {
+        if (depth == 0)
+            return 1;
+        int[] buffer = moves[depth];
+        int count = state.legalMoves(buffer);
+        if (count == 0) {
+            if (passed)
+                return 1; // Neither player can move, the game is over
+            nodes++;
+            state.changePlayer();
+            long leaves = perft(state, depth - 1, true);
+            state.changePlayer();
+            return leaves;
+        }
+        if (depth == 1) {
+            nodes += count;
+            return count;
+        }
+        long leaves = 0;
+        for (int i = 0; i < count; i++) {
+            long undo = state.applyMove(buffer[i]);
+            nodes++;
+            leaves += perft(state, depth - 1, false);
+            state.undoMove(buffer[i], undo);
+        }
+        return leaves;
+    }
+
+    // Reads a board given as one character per square, row by row from the top
+    private static GameState parse(String text, int player) {
+        String squares = text.replaceAll("\\s", "");
+        int size = (int) Math.round(Math.sqrt(squares.length()));
+        if (size * size != squares.length())
+            throw new IllegalArgumentException("The board must have size*size squares, got " + squares.length());
+        int[][] board = new int[size][size];
+        for (int i = 0; i < squares.length(); i++) {
+            int row = i / size;
+            int col = i % size;
+            switch (Character.toUpperCase(squares.charAt(i))) {
+                case '.': case '-': break;
+                case 'X': case 'B': case '1': board[col][row] = 1; break;
+                case 'O': case 'W': case '2': board[col][row] = 2; break;
+                default:
+                    throw new IllegalArgumentException("Unknown square '" + squares.charAt(i) + "'");
+            }
+        }
+        return new GameState(board, player);
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The parameters of Multi-ProbCut, the selective search SmartAI can use instead of searching every
+ * move (see SmartAI.setProbCut). The value v of a search to depth d is predicted from the value v' of a
+ * shallower search of the same position by the linear regression v = slope * v' + intercept, whose
+ * residuals have the standard deviation sigma. Before searching a node to depth d, the search runs the
+ * shallow search with a null window, and if it shows that v is outside the window alpha..beta with a
+ * probability given by the cut threshold t (v' such that slope * v' + intercept lies t * sigma beyond the
+ * window), the node is cut off without the deep search. Because there are parameters for many depths
+ * and for several stages of the game, nodes are tested at every depth from MIN_DEPTH to MAX_DEPTH.
+ *
+ * The parameters are fitted for one board size and evaluation, the scores of the search, from the
+ * point of view of the player in turn. A parameter file starts with the int "OTPC" and the version 1,
+ * followed by the board size, the number of stages and MAX_DEPTH as ints, and for every stage and every
+ * depth from 0 to MAX_DEPTH the slope, intercept and sigma as floats. Depths without a fit have all
+ * three 0. Everything is big-endian.
+ *
+ * The main method calibrates the parameters on positions from a position file written by SelfPlay: it
+ * searches every sampled position to the deepest depth with SmartAI, records the score of every
+ * iteration and fits each depth against its shallow depth by least squares.
+ * Usage: java ProbCut [-i positions file] [-o parameter file] [-n positions] [-d depth] [-w weight file] [-t threads]
+ * Defaults to positions.bin, probcut.bin, 2000 positions, depth 10, the Utility evaluation and one thread
+ * per core. The weight file must be the one the parameters are used with.
+ */
+public final class ProbCut {
+
+    /** Number of stages of the game, by the number of tokens on the board, with their own parameters. */
+    static final int STAGES = 4;
+    /** Shallowest and deepest depths that are tested. */
+    static final int MIN_DEPTH = 3;
+    static final int MAX_DEPTH = 14;
+
+    // The depth of the shallow search for each depth. It has the same parity, as the score of an Othello
+    // search swings with the side that moves last.
+    private static final int[] SHALLOW_DEPTH = {0, 0, 0, 1, 2, 1, 2, 3, 4, 3, 4, 5, 6, 5, 6};
+
+    private static final int MAGIC = 0x4F545043; // "OTPC"
+    private static final int VERSION = 1;
+
+    final int size;
+    private final float[][] slope = new float[STAGES][MAX_DEPTH + 1];
+    private final float[][] intercept = new float[STAGES][MAX_DEPTH + 1];
+    private final float[][] sigma = new float[STAGES][MAX_DEPTH + 1];
+
+    private ProbCut(int size) {
+        this.size = size;
+    }
+
+    /** Returns the stage of the game of a position with the given number of tokens on a board of the given size. */
+    static int stage(int tokens, int size) {
+        return Math.min(STAGES - 1, Math.max(0, (tokens - 4) * STAGES / (size * size - 3)));
+    }
+
+    /** Returns the depth of the shallow search that predicts a search to the given depth. */
+    static int shallowDepth(int depth) {
+        return SHALLOW_DEPTH[depth];
+    }
+
+    /** Returns true if there are parameters for a search to the given depth in the given stage. */
+    boolean covers(int stage, int depth) {
+        return depth >= MIN_DEPTH && depth <= MAX_DEPTH && slope[stage][depth] > 0;
+    }
+
+    float slope(int stage, int depth) {
+        return slope[stage][depth];
+    }
+
+    float intercept(int stage, int depth) {
+        return intercept[stage][depth];
+    }
+
+    float sigma(int stage, int depth) {
+        return sigma[stage][depth];
+    }
+
+    /**
+     * Loads a parameter file.
+     * @throws IOException if the file can not be read or is not a parameter file.
+     */
+    public static ProbCut load(String file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a ProbCut parameter file");
+            var probCut = new ProbCut(in.readInt());
+            if (in.readInt() != STAGES || in.readInt() != MAX_DEPTH)
+                throw new IOException(file + " was made for other stages or depths");
+            for (int stage = 0; stage < STAGES; stage++) {
+                for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+                    probCut.slope[stage][depth] = in.readFloat();
+                    probCut.intercept[stage][depth] = in.readFloat();
+                    probCut.sigma[stage][depth] = in.readFloat();
+                }
+            }
+            return probCut;
+        }
+    }
+
+    /**
+     * Writes the parameters to a file.
+     */
+    void save(String file) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(STAGES);
+            out.writeInt(MAX_DEPTH);
+            for (int stage = 0; stage < STAGES; stage++) {
+                for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+                    out.writeFloat(slope[stage][depth]);
+                    out.writeFloat(intercept[stage][depth]);
+                    out.writeFloat(sigma[stage][depth]);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String input = "positions.bin";
+        String output = "probcut.bin";
+        int count = 2000;
+        int maxDepth = 10;
+        String weightFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        var options = new Options(args, "Usage: java ProbCut [-i positions file] [-o parameter file] [-n positions] [-d depth] [-w weight file] [-t threads]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-i": input = options.value(); break;
+                case "-o": output = options.value(); break;
+                case "-n": count = options.intValue(); break;
+                case "-d": maxDepth = Math.min(MAX_DEPTH, options.intValue()); break;
+                case "-w": weightFile = options.value(); break;
+                case "-t": threads = options.intValue(); break;
+                default: options.unknown();
+            }
+        }
+        List<GameState> positions = samplePositions(input, count);
+        System.out.printf("%d positions, searched to depth %d%n", positions.size(), maxDepth);
+
+        var weights = weightFile == null ? null : PatternEvaluator.Weights.load(weightFile);
+        int depth = maxDepth;
+        ThreadLocal<SmartAI> ais = ThreadLocal.withInitial(() -> {
+            var ai = new SmartAI(64);
+            ai.setTimeLimit(0);
+            ai.setMaxDepth(depth);
+            ai.setEndgameEmpties(0);
+            ai.setPatternWeights(weights);
+            return ai;
+        });
+
+        // The sums of the least squares fit by stage and depth: n, x, y, xx, xy and yy, where y is the
+        // score at the depth and x the score at its shallow depth
+        double[][][] sums = new double[STAGES][MAX_DEPTH + 1][6];
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<int[]>> scores = new ArrayList<>();
+            for (GameState position : positions)
+                scores.add(pool.submit(() -> iterationScores(ais.get(), position, depth)));
+            for (int i = 0; i < positions.size(); i++) {
+                int[] score = scores.get(i).get();
+                GameState position = positions.get(i);
+                int stage = stage(position.getTokens(1) + position.getTokens(2), position.getSize());
+                for (int d = MIN_DEPTH; d <= depth; d++) {
+                    int y = score[d];
+                    int x = score[SHALLOW_DEPTH[d]];
+                    // Lines that reach the end of the game score far from any heuristic score and would
+                    // spoil the fit
+                    if (x == Integer.MIN_VALUE || y == Integer.MIN_VALUE
+                            || Math.abs(x) >= SmartAI.WIN_SCORE / 2 || Math.abs(y) >= SmartAI.WIN_SCORE / 2)
+                        continue;
+                    double[] s = sums[stage][d];
+                    s[0]++;
+                    s[1] += x;
+                    s[2] += y;
+                    s[3] += (double) x * x;
+                    s[4] += (double) x * y;
+                    s[5] += (double) y * y;
+                }
+                if ((i + 1) % 100 == 0)
+                    System.out.printf("%d positions, %.1f s%n", i + 1, (System.nanoTime() - start) / 1e9);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        var probCut = new ProbCut(positions.get(0).getSize());
+        System.out.printf("%5s %5s %7s %7s %9s %9s %6s%n", "stage", "depth", "shallow", "samples", "slope", "intercept", "sigma");
+        for (int stage = 0; stage < STAGES; stage++) {
+            for (int d = MIN_DEPTH; d <= depth; d++) {
+                double[] s = sums[stage][d];
+                double n = s[0];
+                double varX = s[3] / n - (s[1] / n) * (s[1] / n);
+                // Too few samples, or shallow scores that do not vary, give no usable fit
+                if (n < 30 || varX <= 0)
+                    continue;
+                double a = (s[4] / n - s[1] / n * s[2] / n) / varX;
+                double b = s[2] / n - a * s[1] / n;
+                // The mean squared residual of y - (a x + b)
+                double residual = s[5] / n - 2 * a * s[4] / n - 2 * b * s[2] / n + a * a * s[3] / n
+                        + 2 * a * b * s[1] / n + b * b;
+                double sd = Math.sqrt(Math.max(0, residual));
+                if (a <= 0)
+                    continue;
+                probCut.slope[stage][d] = (float) a;
+                probCut.intercept[stage][d] = (float) b;
+                probCut.sigma[stage][d] = (float) sd;
+                System.out.printf("%5d %5d %7d %7.0f %9.3f %9.1f %6.1f%n", stage, d, SHALLOW_DEPTH[d], n, a, b, sd);
+            }
+        }
+        probCut.save(output);
+        System.out.printf("Calibrated in %.1f s, parameters written to %s%n", (System.nanoTime() - start) / 1e9, output);
+    }
+
+    // Reads every n'th position of a position file, so the sample spreads over all its games, skipping
+    // positions where the player in turn has to pass
+    private static List<GameState> samplePositions(String file, int count) throws IOException {
+        List<GameState> positions = new ArrayList<>();
+        try (var channel = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != SelfPlay.MAGIC || buffer.getInt() != SelfPlay.VERSION)
+                throw new IOException(file + " is not a position file");
+            int records = buffer.remaining() / SelfPlay.RECORD_BYTES;
+            int step = Math.max(1, records / Math.max(1, count));
+            for (int i = 0; i < records && positions.size() < count; i += step) {
+                buffer.position(8 + i * SelfPlay.RECORD_BYTES);
+                long black = buffer.getLong();
+                long white = buffer.getLong();
+                int player = buffer.get();
+                var state = GameState.fromBitboards(black, white, player);
+                if (state.getMobility(player) > 0)
+                    positions.add(state);
+            }
+        }
+        if (positions.isEmpty())
+            throw new IOException(file + " has no positions to calibrate with");
+        return positions;
+    }
+
+    // Searches the position to the given depth and returns the score of every iteration by depth, or
+    // Integer.MIN_VALUE for the depths not searched, as the search stops once it reaches the end of the game
+    private static int[] iterationScores(SmartAI ai, GameState state, int depth) {
+        int[] scores = new int[depth + 1];
+        Arrays.fill(scores, Integer.MIN_VALUE);
+        ai.setProgressListener((d, move, score, nodes, nanos) -> {
+            if (d <= depth)
+                scores[d] = score;
+        });
+        ai.decideMove(state);
+        ai.setProgressListener(null);
+        return scores;
+    }
+}
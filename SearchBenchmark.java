@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how SmartAI's search speed scales with the number of search threads. Every thread count
+ * searches the same positions with the same time budget per move, and the nodes per second and the
+ * speedup over one thread are printed. One thread is always measured first, as the baseline.
+ *
+ * Usage: java [-Dsmartai.parallel=root_split|lazy_smp] SearchBenchmark [millis per position] [thread counts...]
+ * Defaults to 2000 ms and 1 2 4 8 threads.
+ */
+public class SearchBenchmark {
+
+    public static void main(String[] args) {
+        long millis = args.length >= 1 ? Long.parseLong(args[0]) : 2000;
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int i = 1; i < args.length; i++)
+            threadCounts.add(Integer.parseInt(args[i]));
+        if (threadCounts.isEmpty())
+            threadCounts.addAll(List.of(1, 2, 4, 8));
+
+        List<GameState> positions = positions();
+        System.out.printf("%d positions, %d ms each, %d cores%n", positions.size(), millis,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %14s %12s %9s%n", "threads", "nodes", "nodes/s", "speedup");
+        // The speedups are over one thread, which is measured first whether it was asked for or not
+        boolean showOne = threadCounts.remove(Integer.valueOf(1));
+        long[] one = measure(1, millis, positions);
+        double baseline = nodesPerSecond(one);
+        if (showOne)
+            print(1, one, baseline);
+        for (int threads : threadCounts)
+            print(threads, measure(threads, millis, positions), baseline);
+    }
+
+    // Searches the positions with the given number of threads and returns the nodes searched and the
+    // time it took in nanoseconds
+    private static long[] measure(int threads, long millis, List<GameState> positions) {
+        // A fresh AI for every thread count, so no run benefits from the table of an earlier one
+        var ai = new SmartAI(64);
+        ai.setThreads(threads);
+        ai.setParallelMode(SmartAI.ParallelMode.valueOf(System.getProperty("smartai.parallel", "root_split").toUpperCase()));
+        ai.setTimeLimit(millis);
+        ai.decideMove(positions.get(0)); // Warm up the JIT and the thread pool
+        ai.getTranspositionTable().clear();
+
+        long nodes = 0;
+        long nanos = 0;
+        for (GameState position : positions) {
+            long start = System.nanoTime();
+            ai.decideMove(position);
+            nanos += System.nanoTime() - start;
+            nodes += ai.getNodes();
+        }
+        ai.close();
+        return new long[]{nodes, nanos};
+    }
+
+    private static double nodesPerSecond(long[] result) {
+        return result[0] / (result[1] / 1e9);
+    }
+
+    private static void print(int threads, long[] result, double baseline) {
+        double nps = nodesPerSecond(result);
+        System.out.printf("%8d %14d %12.0f %9.2f%n", threads, result[0], nps, nps / baseline);
+    }
+
+    /**
+     * Returns a fixed set of 8x8 positions: the start position and positions after 10, 20, 30 and 40
+     * random moves of a few games played from a fixed seed.
+     */
+    static List<GameState> positions() {
+        List<GameState> positions = new ArrayList<>();
+        Random random = new Random(20180209);
+        for (int game = 0; game < 2; game++) {
+            GameState state = new GameState(8, 1);
+            for (int ply = 0; ply <= 40 && !state.isFinished(); ply++) {
+                if (ply % 10 == 0 && (game == 0 || ply > 0))
+                    positions.add(new GameState(state.getBoard(), state.getPlayerInTurn()));
+                var moves = state.legalMoves();
+                if (moves.isEmpty())
+                    state.changePlayer();
+                else
+                    state.insertToken(moves.get(random.nextInt(moves.size())));
+            }
+        }
+        return positions;
+    }
+}
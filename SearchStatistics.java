@@ -0,0 +1,155 @@
+import java.util.Locale;
+
+/**
+ * Statistics of one SmartAI.decideMove: the nodes visited, the positions evaluated at the horizon or at
+ * the end of the game, the cutoffs and how many of them the first move caused, the transposition table
+ * lookups, hits and cutoffs, the nodes of ProbCut's shallow searches, the effective branching factor,
+ * and the nodes and time after every completed iteration. See SmartAI.getStatistics.
+ *
+ * The search threads count into their own fields, which are added up when the move is decided. The
+ * counters that exist only for these statistics are skipped when the JVM is started with
+ * -Dsmartai.nostats=true; as ENABLED is a constant, the JIT compiler then removes them altogether.
+ */
+public final class SearchStatistics {
+
+    /** False if the statistics are turned off with -Dsmartai.nostats=true. */
+    static final boolean ENABLED = !Boolean.getBoolean("smartai.nostats");
+
+    final int depth;
+    final int score;
+    final long nanos;
+    final long nodes;
+    final long evaluations;
+    final long cutoffs;
+    final long firstMoveCutoffs;
+    final long tableProbes;
+    final long tableHits;
+    final long tableCutoffs;
+    final long probCutNodes;
+    final long[] iterationNodes; // Nodes visited when each iteration was done, by depth - 1
+    final long[] iterationNanos; // Time used when each iteration was done, by depth - 1
+
+    SearchStatistics(int depth, int score, long nanos, long[] counters, long[] iterationNodes, long[] iterationNanos) {
+        this.depth = depth;
+        this.score = score;
+        this.nanos = nanos;
+        this.nodes = counters[0];
+        this.evaluations = counters[1];
+        this.cutoffs = counters[2];
+        this.firstMoveCutoffs = counters[3];
+        this.tableProbes = counters[4];
+        this.tableHits = counters[5];
+        this.tableCutoffs = counters[6];
+        this.probCutNodes = counters[7];
+        this.iterationNodes = iterationNodes;
+        this.iterationNanos = iterationNanos;
+    }
+
+    /** Returns the depth of the last completed iteration. */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** Returns the score of the move, see SmartAI.getScore. */
+    public int getScore() {
+        return score;
+    }
+
+    /** Returns the time the search took in nanoseconds. */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns the number of nodes visited by all search threads and the endgame solver. Every position
+     * the search enters is counted once, leaves included, but not the shallow searches of ProbCut.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of positions evaluated at the horizon or scored as finished games, which are
+     * counted as nodes (or as ProbCut nodes) as well.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /** Returns the number of beta (and alpha) cutoffs. */
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+    /** Returns the fraction of the cutoffs caused by the first move searched. */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    /** Returns the number of transposition table lookups. */
+    public long getTableProbes() {
+        return tableProbes;
+    }
+
+    /** Returns the number of lookups that found an entry for the position. */
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /** Returns the number of nodes whose value was taken from the table without searching them. */
+    public long getTableCutoffs() {
+        return tableCutoffs;
+    }
+
+    /**
+     * Returns the number of nodes visited by the shallow searches with which ProbCut decides to cut off a
+     * node, 0 without ProbCut.
+     */
+    public long getProbCutNodes() {
+        return probCutNodes;
+    }
+
+    /** Returns the nodes per second of the search. */
+    public double getNodesPerSecond() {
+        return nanos > 0 ? nodes * 1e9 / nanos : 0;
+    }
+
+    /**
+     * Returns the effective branching factor: the number b for which a tree of the completed depth with b
+     * children per node has as many nodes as the search visited, or 0 if no iteration completed. The
+     * lower it is, the better the pruning and the move ordering work.
+     */
+    public double getBranchingFactor() {
+        return depth > 0 && nodes > 0 ? Math.pow(nodes, 1.0 / depth) : 0;
+    }
+
+    /** Returns the time in milliseconds at which each iteration was done, by depth - 1. */
+    public double[] getIterationMillis() {
+        double[] millis = new double[iterationNanos.length];
+        for (int i = 0; i < millis.length; i++)
+            millis[i] = iterationNanos[i] / 1e6;
+        return millis;
+    }
+
+    /** Returns the number of nodes visited when each iteration was done, by depth - 1. */
+    public long[] getIterationNodes() {
+        return iterationNodes.clone();
+    }
+
+    /**
+     * Returns the statistics as one line of JSON, with the given move.
+     */
+    public String toJson(Position move) {
+        var json = new StringBuilder(256);
+        json.append(String.format(Locale.ROOT, "{\"move\":[%d,%d],\"depth\":%d,\"score\":%d,\"millis\":%.3f,\"nodes\":%d,"
+                + "\"nps\":%.0f,\"evaluations\":%d,\"cutoffs\":%d,\"firstMoveCutoffRate\":%.4f,\"branchingFactor\":%.3f,"
+                + "\"tableProbes\":%d,\"tableHits\":%d,\"tableCutoffs\":%d,\"probCutNodes\":%d,\"iterations\":[",
+                move.col, move.row, depth, score, nanos / 1e6, nodes, getNodesPerSecond(), evaluations, cutoffs,
+                getFirstMoveCutoffRate(), getBranchingFactor(), tableProbes, tableHits, tableCutoffs, probCutNodes));
+        for (int i = 0; i < iterationNodes.length; i++) {
+            json.append(i == 0 ? "" : ",").append(String.format(Locale.ROOT, "{\"depth\":%d,\"nodes\":%d,\"millis\":%.3f}",
+                    i + 1, iterationNodes[i], iterationNanos[i] / 1e6));
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * The JMX view of a SmartAI's search statistics (see SmartAI.registerMBean): the statistics of its latest
+ * move and totals over all its moves.
+ */
+public interface SearchStatisticsMBean {
+
+    /** Returns the number of moves decided. */
+    long getMoves();
+
+    /** Returns the nodes visited over all moves. */
+    long getTotalNodes();
+
+    /** Returns the search time over all moves in milliseconds. */
+    double getTotalMillis();
+
+    // The latest move, see SearchStatistics
+
+    int getDepth();
+
+    int getScore();
+
+    double getMillis();
+
+    long getNodes();
+
+    double getNodesPerSecond();
+
+    long getEvaluations();
+
+    long getCutoffs();
+
+    double getFirstMoveCutoffRate();
+
+    double getBranchingFactor();
+
+    long getTableProbes();
+
+    long getTableHits();
+
+    long getTableCutoffs();
+
+    long getProbCutNodes();
+
+    double[] getIterationMillis();
+
+    long[] getIterationNodes();
+}
@@ -0,0 +1,321 @@
+import java.util.Arrays;
+
+/**
+ * The alpha-beta search of SmartAI as run by one thread. Each search thread has its own Searcher
+ * with its own move buffers, counters and statistics, while the transposition table, the deadline
+ * and the aborted flag are shared through the SmartAI it belongs to.
+ *
+ * The search is a negamax Principal Variation Search: every score is for the player in turn at the
+ * node, the first move of a node is searched with the full window, and the other moves with a null
+ * window that only shows whether they are better, which are searched again with the full window if
+ * they are. The moves of the principal variation are collected as the search goes. Utility is not
+ * symmetric between the players, so positions are evaluated from the point of view of the player the
+ * search is for, and the score negated where the opponent is in turn.
+ */
+class Searcher {
+
+    static final int TIME_CHECK_INTERVAL = 1024; // Nodes between checks of the clock, a power of two
+    // Depth stored in the transposition table for positions whose search reached the end of the game in
+    // every line. Their score holds for any depth.
+    static final int SOLVED = 255;
+
+    /** Bound of the full window. Its negation is a score too, unlike Integer.MIN_VALUE's. */
+    static final int INFINITY = Integer.MAX_VALUE;
+    /** A pass in a principal variation. */
+    static final int PASS = -1;
+
+    // XORed into the hash of positions searched for player 2. The scores in the table are for the
+    // player in turn, but the evaluation depends on the player the search is for.
+    private static final long PLAYER_2_KEY = 0x5DEECE66DL * 0x9E3779B97F4A7C15L;
+
+    // Returned by probCut when the node is not cut off. A cut returns alpha or beta, which are then well
+    // inside the range of the scores.
+    private static final int NO_CUT = Integer.MIN_VALUE;
+
+    private final SmartAI ai;
+    private final TranspositionTable table;
+    final TranspositionTable.Statistics tableStats = new TranspositionTable.Statistics();
+    final MoveOrderer orderer = new MoveOrderer();
+    int[][] moveBuffers;    // One buffer per ply for the legal moves, reused between searches
+    PatternEvaluator patterns; // Evaluates the horizon if SmartAI has pattern weights, otherwise null
+    ProbCut probCut;        // Parameters of the selective search if SmartAI has them for the board, otherwise null
+    double cutThreshold;    // Standard deviations a node must be outside the window to be cut off
+
+    // State of the current search
+    int player;             // Player the search is for, set by setPosition
+    int searchDepth;        // Depth of the current iteration
+    boolean horizonReached; // True if the current iteration stopped any line before the end of the game
+    long nodes;             // Nodes visited in the current search, leaves included, each counted once
+    long probeNodes;        // Nodes visited by the shallow searches of ProbCut in the current search
+
+    // Counted only if SearchStatistics.ENABLED, since the AI was created
+    long evaluations;       // Positions evaluated at the horizon or scored as finished games
+    long tableCutoffs;      // Nodes whose value was taken from the transposition table
+    int rootMove;           // Best move found at the root in the current iteration
+    int[][] pv;             // Principal variation from each ply, pv[ply][ply..pvLength[ply] - 1]
+    int[] pvLength;
+    boolean helper;         // True while this thread runs as a Lazy SMP helper
+
+    Searcher(SmartAI ai) {
+        this.ai = ai;
+        this.table = ai.getTranspositionTable();
+    }
+
+    /**
+     * Makes sure there are move buffers and move ordering tables for searches to the given depth on a
+     * board with the given number of columns and rows.
+     */
+    void ensureBuffers(int size, int depthLimit) {
+        int squares = size * size;
+        if (moveBuffers == null || moveBuffers.length < depthLimit || moveBuffers[0].length != squares)
+            moveBuffers = new int[depthLimit][squares];
+        if (pv == null || pv.length < depthLimit + 1) {
+            pv = new int[depthLimit + 1][depthLimit + 1];
+            pvLength = new int[depthLimit + 1];
+        }
+        orderer.ensureTables(size, depthLimit);
+        var weights = ai.getPatternWeights();
+        if (weights == null || size != BitBoard.SIZE)
+            patterns = null;
+        else if (patterns == null || patterns.weights != weights)
+            patterns = new PatternEvaluator(weights);
+        var probCut = ai.getProbCut();
+        this.probCut = probCut != null && probCut.size == size ? probCut : null;
+        cutThreshold = ai.getCutThreshold();
+    }
+
+    /**
+     * Prepares the search of the given state for the given player, whose turn it is at the root. The
+     * state is then changed only by the search itself.
+     */
+    void setPosition(GameState state, int player) {
+        this.player = player;
+        if (patterns != null)
+            patterns.setPosition(state);
+    }
+
+    /**
+     * Plays the move for the player in turn and returns the record for takeBack, or ILLEGAL_MOVE.
+     */
+    long play(GameState state, int move) {
+        int mover = state.getPlayerInTurn();
+        long undo = state.applyMove(move);
+        if (patterns != null && undo != GameState.ILLEGAL_MOVE)
+            patterns.play(move, undo, mover);
+        return undo;
+    }
+
+    /**
+     * Takes back a move played with play.
+     */
+    void takeBack(GameState state, int move, long undo) {
+        state.undoMove(move, undo);
+        if (patterns != null)
+            patterns.undo(move, undo, state.getPlayerInTurn());
+    }
+
+    /**
+     * Returns the key of the given state in the transposition table for a search for the given player.
+     */
+    static long key(GameState state, int player) {
+        return state.getHash() ^ (player == 2 ? PLAYER_2_KEY : 0);
+    }
+
+    /**
+     * Returns the principal variation of the latest search from the root, as col*size+row moves and
+     * PASS. It ends where the search took the value of a position from the table or cut it off.
+     */
+    int[] principalVariation() {
+        return Arrays.copyOf(pv[0], pvLength[0]);
+    }
+
+    /**
+     * Searches the state to the remaining depth of the iteration and returns its value for the player in
+     * turn. The value is exact if it is inside the window alpha..beta, an upper bound if it is at most
+     * alpha and a lower bound if it is at least beta. counter is the ply of the state below the root.
+     */
+    int search(GameState state, int alpha, int beta, int counter) {
+        nodes++;
+        pvLength[counter] = counter;
+        if (outOfTime())
+            return 0;
+        // Checks if the game is finished or if the depth of this iteration has been reached
+        // Then returns the utility at this position
+        if (state.isFinished() || counter >= searchDepth)
+            return evaluate(state);
+
+        // Uses the result of an earlier search of this position if it was deep enough
+        int depth = searchDepth - counter;
+        long key = key(state, player);
+        long entry = table.probe(key, tableStats);
+        if (counter > 0 && isCutoff(entry, depth, alpha, beta)) {
+            horizonReached |= TranspositionTable.depth(entry) != SOLVED;
+            if (SearchStatistics.ENABLED)
+                tableCutoffs++;
+            return TranspositionTable.score(entry);
+        }
+
+        // A shallow search may show that the value is very likely outside the window
+        if (probCut != null && counter > 0) {
+            int cut = probCut(state, alpha, beta, counter, depth);
+            if (cut != NO_CUT)
+                return cut;
+            pvLength[counter] = counter;
+        }
+
+        var moves = moveBuffers[counter];
+        int moveCount = state.legalMoves(moves);
+        // The player in turn has to pass, the opponent moves again
+        if (moveCount == 0)
+            return passValue(state, alpha, beta, counter);
+
+        int alphaOrig = alpha;
+        int v = -INFINITY;
+        int move = -1;
+        // Tracks whether this subtree reaches the horizon, separately from its siblings
+        boolean outerHorizon = horizonReached;
+        horizonReached = false;
+        orderer.order(moves, moveCount, entry != 0 ? TranspositionTable.move(entry) : -1, counter);
+        for (int i = 0; i < moveCount; i++) {
+            int m = moves[i];
+            //Plays the move on the state and takes it back again after searching it
+            long undo = play(state, m);
+            if (undo == GameState.ILLEGAL_MOVE)
+                continue; // Not one of the legal moves, which is a bug, but the others are still searched
+
+            int util;
+            if (move == -1)
+                util = -search(state, -beta, -alpha, counter + 1);
+            else {
+                // Only shows whether the move is better than the best so far, which it rarely is
+                util = -search(state, -alpha - 1, -alpha, counter + 1);
+                if (util > alpha && util < beta)
+                    util = -search(state, -beta, -alpha, counter + 1);
+            }
+            takeBack(state, m, undo);
+            if (stopped())
+                return 0; // The iteration is discarded, so the result does not matter
+
+            if (util > v || move == -1) {
+                v = util;
+                move = m;
+                if (counter == 0)
+                    rootMove = m;
+            }
+            if (v > alpha) {
+                alpha = v;
+                updatePrincipalVariation(counter, m);
+            }
+
+            // Beta cut
+            if (v >= beta) {
+                orderer.cutoff(m, i, counter, depth);
+                break;
+            }
+        }
+        int bound = v >= beta ? TranspositionTable.LOWER : (v <= alphaOrig ? TranspositionTable.UPPER : TranspositionTable.EXACT);
+        table.store(key, horizonReached ? Math.min(depth, SOLVED - 1) : SOLVED, bound, v, move, tableStats);
+        horizonReached |= outerHorizon;
+        return v;
+    }
+
+    // Makes the move followed by the principal variation of the next ply the principal variation of this one
+    private void updatePrincipalVariation(int counter, int move) {
+        int[] line = pv[counter];
+        line[counter] = move;
+        int length = pvLength[counter + 1];
+        System.arraycopy(pv[counter + 1], counter + 1, line, counter + 1, length - (counter + 1));
+        pvLength[counter] = Math.max(length, counter + 1);
+    }
+
+    // Multi-ProbCut (see ProbCut): predicts the value of the node at the given depth from null-window
+    // searches to the shallow depth, and returns beta if the deep search would fail high and alpha if it
+    // would fail low with the probability of the cut threshold, and NO_CUT otherwise
+    private int probCut(GameState state, int alpha, int beta, int counter, int depth) {
+        int stage = ProbCut.stage(state.getTokens(1) + state.getTokens(2), state.getSize());
+        if (!probCut.covers(stage, depth))
+            return NO_CUT;
+        double slope = probCut.slope(stage, depth);
+        // The parameters predict scores for the player the search is for
+        double intercept = state.getPlayerInTurn() == player ? probCut.intercept(stage, depth) : -probCut.intercept(stage, depth);
+        double margin = cutThreshold * probCut.sigma(stage, depth);
+        int savedDepth = searchDepth;
+        long savedNodes = nodes;
+        boolean outerHorizon = horizonReached;
+        searchDepth = counter + ProbCut.shallowDepth(depth);
+        int cut = NO_CUT;
+        // Windows at a won or lost game are left to the full search
+        if (Math.abs(beta) < SmartAI.WIN_SCORE / 2) {
+            // The deep value is at least beta if slope * v' + intercept - margin >= beta
+            int bound = (int) Math.ceil((beta + margin - intercept) / slope);
+            if (search(state, bound - 1, bound, counter) >= bound)
+                cut = beta;
+        }
+        if (cut == NO_CUT && Math.abs(alpha) < SmartAI.WIN_SCORE / 2) {
+            // The deep value is at most alpha if slope * v' + intercept + margin <= alpha
+            int bound = (int) Math.floor((alpha - margin - intercept) / slope);
+            if (search(state, bound, bound + 1, counter) <= bound)
+                cut = alpha;
+        }
+        searchDepth = savedDepth;
+        // The shallow searches visit this node and its subtree again, so they are counted apart
+        probeNodes += nodes - savedNodes;
+        nodes = savedNodes;
+        // A node that is cut off has not been searched to the end of the game
+        horizonReached = outerHorizon || cut != NO_CUT;
+        return cut;
+    }
+
+    // Scores a finished game with Utility, and evaluates a position at the horizon with the pattern
+    // weights if there are any, for the player in turn
+    private int evaluate(GameState state) {
+        if (SearchStatistics.ENABLED)
+            evaluations++;
+        int sign = state.getPlayerInTurn() == player ? 1 : -1;
+        if (state.isFinished())
+            return sign * SmartAI.Utility(state, player);
+        horizonReached = true;
+        if (patterns == null)
+            return sign * SmartAI.Utility(state, player);
+        return sign * patterns.evaluate(state.getTokens(1) + state.getTokens(2), player);
+    }
+
+    // Returns true if the search has run out of time or nodes (those of ProbCut included) or was stopped,
+    // which is checked on every TIME_CHECK_INTERVAL'th node only
+    private boolean outOfTime() {
+        if ((nodes & (TIME_CHECK_INTERVAL - 1)) == 0 && (ai.timeLimitMillis > 0 && System.nanoTime() > ai.deadline
+                || ai.nodeLimit > 0 && nodes + probeNodes >= ai.nodeLimit || ai.stopToken.get()))
+            ai.aborted = true;
+        return stopped();
+    }
+
+    /**
+     * Returns true if the search of this thread should stop: the time is up, or this is a Lazy SMP
+     * helper and the main search has finished.
+     */
+    boolean stopped() {
+        return ai.aborted || (helper && ai.helpersStopped);
+    }
+
+    // Returns true if the table entry was searched at least to the given depth and its score
+    // decides the value of the position for the window alpha..beta
+    private static boolean isCutoff(long entry, int depth, int alpha, int beta) {
+        if (entry == 0 || TranspositionTable.depth(entry) < depth)
+            return false;
+        int score = TranspositionTable.score(entry);
+        switch (TranspositionTable.bound(entry)) {
+            case TranspositionTable.EXACT: return true;
+            case TranspositionTable.LOWER: return score >= beta;
+            default: return score <= alpha;
+        }
+    }
+
+    // Searches the position after the player in turn passes
+    private int passValue(GameState state, int alpha, int beta, int counter) {
+        state.changePlayer();
+        int util = -search(state, -beta, -alpha, counter + 1);
+        state.changePlayer();
+        updatePrincipalVariation(counter, PASS);
+        return util;
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays games between two IOthelloAI engines on an 8x8 board without the GUI, on all cores, and writes
+ * the positions of the games, each labelled with the final result of its game, to a position file for
+ * Trainer. Every game starts with a number of random moves, so the games differ even between
+ * deterministic engines.
+ *
+ * A position file starts with the int "OTPS" and the version 1, followed by one record of 18 bytes per
+ * position: the bitboards (see BitBoard) of black and white, the player in turn (1 or 2) as a byte, and
+ * the final disc differential of the game (black minus white) as a signed byte. Everything is big-endian.
+ * The positions of a game are written together and in order, one before every move of the engines (but
+ * not before the random moves or a pass), which lets Trainer tell the games apart.
+ *
+ * With -G, the games themselves are also appended to a game file (see GameRecord).
+ *
+ * Usage: java SelfPlay [-g games] [-t threads] [-r random plies] [-s seed] [-o file] [-G game file] [engine1 engine2]
+ * The engines are IOthelloAI classes and default to SmartAI against SmartAI. Unless they are set on the
+ * command line, SmartAI searches to depth 4 without a time limit and solves the last 12 empty squares
+ * (the smartai.depth, smartai.time and smartai.endgame properties), which keeps the games fast.
+ */
+public class SelfPlay {
+
+    static final int MAGIC = 0x4F545053; // "OTPS"
+    static final int VERSION = 1;
+    static final int RECORD_BYTES = 18;
+
+    public static void main(String[] args) throws Exception {
+        int games = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int randomPlies = 8;
+        long seed = 1;
+        String output = "positions.bin";
+        String gameFile = null;
+        List<String> engines = new ArrayList<>();
+        var options = new Options(args, "Usage: java SelfPlay [-g games] [-t threads] [-r random plies] [-s seed] [-o file] [-G game file] [engine1 engine2]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-g": games = options.intValue(); break;
+                case "-t": threads = options.intValue(); break;
+                case "-r": randomPlies = options.intValue(); break;
+                case "-s": seed = options.longValue(); break;
+                case "-o": output = options.value(); break;
+                case "-G": gameFile = options.value(); break;
+                default: engines.add(options.argument());
+            }
+        }
+        if (engines.isEmpty())
+            engines = List.of("SmartAI", "SmartAI");
+        if (engines.size() != 2)
+            options.usage();
+
+        var next = new AtomicInteger();
+        var positions = new AtomicLong();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        var records = gameFile != null ? new GameRecord.Writer(gameFile) : null;
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                var engine1 = engines.get(0);
+                var engine2 = engines.get(1);
+                int total = games;
+                int plies = randomPlies;
+                long workerSeed = seed * 1000003 + t;
+                workers.add(pool.submit(() -> {
+                    // Each thread has its own engines, as an engine is not meant to be used by several threads
+                    IOthelloAI black = engine(engine1);
+                    IOthelloAI white = engine(engine2);
+                    var random = new Random(workerSeed);
+                    var record = new ByteArrayOutputStream();
+                    try {
+                        for (int game = next.getAndIncrement(); game < total; game = next.getAndIncrement()) {
+                            // The engines change colours every other game
+                            int count = game % 2 == 0 ? play(black, white, plies, random, record, records)
+                                                      : play(white, black, plies, random, record, records);
+                            synchronized (out) {
+                                record.writeTo(out);
+                            }
+                            record.reset();
+                            positions.addAndGet(count);
+                            if ((game + 1) % 100 == 0)
+                                report(game + 1, positions.get(), start);
+                        }
+                    }
+                    finally {
+                        close(black);
+                        close(white);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers)
+                worker.get();
+        }
+        finally {
+            pool.shutdown();
+            if (records != null)
+                records.close();
+        }
+        report(games, positions.get(), start);
+        System.out.println("Positions written to " + output);
+    }
+
+    /**
+     * Plays a game from the start position, where the given number of plies are random moves, and
+     * writes its positions to out, and the game to records unless it is null. Returns the number of
+     * positions written.
+     */
+    static int play(IOthelloAI black, IOthelloAI white, int randomPlies, Random random, OutputStream out,
+                    GameRecord.Writer records) throws IOException {
+        var state = new GameState(8, 1);
+        var game = new GameRecord(8, black.getClass().getName(), white.getClass().getName());
+        List<long[]> positions = new ArrayList<>(); // Black, white and player in turn of each position
+        int[] moves = new int[64];
+        for (int ply = 0; !state.isFinished(); ply++) {
+            int count = state.legalMoves(moves);
+            if (count == 0) {
+                state.changePlayer();
+                game.addPass();
+                continue;
+            }
+            if (ply < randomPlies) {
+                int m = moves[random.nextInt(count)];
+                var move = new Position(m / 8, m % 8);
+                state.insertToken(move);
+                game.addMove(move);
+                continue;
+            }
+            positions.add(new long[] { state.getBitboard(1), state.getBitboard(2), state.getPlayerInTurn() });
+            IOthelloAI ai = state.getPlayerInTurn() == 1 ? black : white;
+            // The engine gets its own copy, so it can not change the game
+            Position move = ai.decideMove(new GameState(state.getBoard(), state.getPlayerInTurn()));
+            if (!state.insertToken(move))
+                throw new IllegalStateException(ai.getClass().getName() + " played the illegal move " + move);
+            game.addMove(move);
+        }
+        game.finish(state);
+        if (records != null)
+            records.write(game);
+        int[] tokens = state.countTokens();
+        var data = new DataOutputStream(out);
+        for (long[] p : positions) {
+            data.writeLong(p[0]);
+            data.writeLong(p[1]);
+            data.writeByte((int) p[2]);
+            data.writeByte(tokens[0] - tokens[1]);
+        }
+        return positions.size();
+    }
+
+    private static void report(int games, long positions, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games, %d positions, %.1f games/s, %.0f positions/s%n",
+                games, positions, games / seconds, positions / seconds);
+    }
+
+    // Closes an engine that holds threads or other resources, such as SmartAI
+    static void close(IOthelloAI ai) throws Exception {
+        if (ai instanceof AutoCloseable)
+            ((AutoCloseable) ai).close();
+    }
+
+    // Creates an engine. SmartAI searches to depth 4 without a time limit and solves the last 12 empty
+    // squares, unless the smartai.depth, smartai.time and smartai.endgame properties say otherwise
+    private static IOthelloAI engine(String name) throws Exception {
+        IOthelloAI ai = Othello.parseGameLogicParam(name);
+        if (ai instanceof SmartAI) {
+            var smart = (SmartAI) ai;
+            if (System.getProperty("smartai.depth") == null)
+                smart.setMaxDepth(4);
+            if (System.getProperty("smartai.time") == null)
+                smart.setTimeLimit(0);
+            if (System.getProperty("smartai.endgame") == null)
+                smart.setEndgameEmpties(12);
+        }
+        return ai;
+    }
+}
@@ -1,200 +1,1094 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 
 /**
- * A simple OthelloAI-implementation. The method to decide the next move just
- * returns the first legal move that it finds. 
+ * An OthelloAI that decides its moves with an iterative deepening alpha-beta search (see decideMove
+ * and Searcher) within a time budget per move, with a transposition table shared between moves, move
+ * ordering, and an exact endgame solver for the last empty squares. The search can run on several
+ * threads (see setThreads and ParallelMode), evaluate with pattern weights, play from an opening book,
+ * prune selectively with ProbCut and ponder on the opponent's time. An AI searching with more than one
+ * thread should be closed when it is no longer used.
  * @author Mai Ajspur
  * @version 9.2.2018
  */
-public class SmartAI implements IOthelloAI{
+public class SmartAI implements IOthelloAI, AutoCloseable {
+
+    private static final int DEFAULT_HASH_MB = 16;
+    private static final long DEFAULT_TIME_MILLIS = 1000;
+    private static final int DEFAULT_ENDGAME_EMPTIES = 16;
+    private static final double DEFAULT_CUT_THRESHOLD = 1.5;
+    // Smallest half width of an aspiration window, and how much it is widened when the score falls outside
+    private static final int MIN_ASPIRATION_WIDTH = 2;
+    private static final int ASPIRATION_GROWTH = 4;
+
+    /**
+     * Utility of a finished game that is won, to which the disc differential is added. It is larger
+     * than any heuristic score, and a bigger win scores higher than a smaller one.
+     */
+    public static final int WIN_SCORE = 1000000;
+
+    /**
+     * Receives the progress of the searches of decideMove, see setProgressListener.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the searching thread after every completed iteration, and after the endgame solver,
+         * with the depth, the best move and its score (see getScore), and the nodes and nanoseconds the
+         * search has used so far.
+         */
+        void progress(int depth, Position move, int score, long nodes, long nanos);
+    }
+
+    /**
+     * How the search is spread over more than one thread.
+     */
+    public enum ParallelMode {
+        /** The moves at the root are searched in parallel (Young Brothers Wait at the root). */
+        ROOT_SPLIT,
+        /**
+         * Helper threads run the same iterative deepening search as the main thread, every other one a
+         * ply deeper, and only share results through the transposition table (Lazy SMP).
+         */
+        LAZY_SMP
+    }
+
+    private final TranspositionTable table;
+    long timeLimitMillis;           // Time budget per move, 0 for no limit
+    private int maxDepth;           // Deepest iteration to search
+    long nodeLimit;                 // Nodes per search thread per move, 0 for no limit
+    private int endgameEmpties = DEFAULT_ENDGAME_EMPTIES; // Empty squares from which the endgame is solved exactly
+    private int threads = 1;        // Number of search threads
+    private ParallelMode parallelMode = ParallelMode.ROOT_SPLIT;
+
+    // Search threads. The calling thread uses mainSearcher, the threads of the pool each have their own,
+    // which keeps the AI reachable from the pool's threads until the pool is shut down by close.
+    private final Searcher mainSearcher;
+    private final EndgameSolver solver = new EndgameSolver();
+    private final List<Searcher> searchers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Searcher> workerSearchers = ThreadLocal.withInitial(this::newSearcher);
+    private ForkJoinPool pool;
+    private PatternEvaluator.Weights patternWeights; // Evaluation weights, null to evaluate with Utility
+    private OpeningBook book;       // Moves played without searching, null for none
+    private ProbCut probCut;        // Parameters of the selective search, null to search every move
+    private double cutThreshold = DEFAULT_CUT_THRESHOLD;
+
+    // State of the current search, shared by all search threads
+    volatile long deadline;         // System.nanoTime() at which the search is stopped
+    volatile boolean aborted;       // True if the current iteration ran out of time
+    volatile boolean helpersStopped; // True when the Lazy SMP helpers should stop
+    // Set by stop, makes the decideMove it belongs to return at the next check of the clock. Every call has
+    // its own, so a stop can not be undone by the next call resetting a shared flag
+    private volatile AtomicBoolean decideToken = new AtomicBoolean();
+    // Checked by the running search: the token of decideMove, or one of its own for a ponder search, which
+    // stop does not reach until a ponder hit makes it part of a decideMove
+    volatile AtomicBoolean stopToken = decideToken;
+    private volatile ProgressListener progressListener;
+    // Deepest iteration completed by a Lazy SMP helper
+    private final AtomicReference<HelperResult> helperResult = new AtomicReference<>(HelperResult.NONE);
+    private int boardSize;          // Number of columns and rows of the board
+    private int depthLimit;         // Deepest iteration of the current search
+    private int completedDepth;     // Depth of the last completed iteration of the latest search
+    private int score;              // Score of the move chosen by the latest search, for the player in turn
+    private int iterationScore;     // Score of the root in the latest iteration
+    private int[] iterationPv;      // Principal variation of the latest iteration
+    private int[] principalVariation = new int[0]; // Principal variation of the move chosen by the latest search
+
+    // Results of the latest call to decideMove, kept apart as a ponder search changes the fields above
+    private int resultMove;
+    private int[] resultPv = new int[0];
+    private int resultScore;
+    private int resultDepth;
+    private long resultNodes;
+
+    // Statistics, see getStatistics
+    private long thinkStart;        // System.nanoTime() at which the current or latest search started
+    private long[] countersAtStart; // The counters (see counters) when it started
+    private long[] iterationNodes;  // Nodes and time after each of its completed iterations
+    private long[] iterationNanos;
+    private volatile SearchStatistics statistics;
+    private volatile long moves;
+    private volatile long totalNodes;
+    private volatile long totalNanos;
+    private PrintStream statisticsLog;
+    private ObjectName mbeanName;
+
+    // Pondering, see setPondering
+    private boolean pondering;
+    private Thread ponderThread;    // Searches ponderState while the opponent thinks, null if not running
+    private GameState ponderState;  // Position after the move returned and the predicted reply
+    private volatile int ponderMove; // Move found by the ponder search, -1 until it completes an iteration
+    private long ponderStart;       // System.nanoTime() at which the ponder search started
+    private long ponderHits;
+    private long ponderMisses;
+
+    /**
+     * Creates the AI configured by system properties: smartai.hash is the size of the transposition
+     * table in megabytes (default 16), smartai.time is the time budget per move in milliseconds
+     * (default 1000, 0 for none), smartai.depth is the deepest iteration to search (default no limit)
+     * smartai.threads is the number of search threads (default 1) and smartai.parallel is how they share
+     * the work, root_split (default) or lazy_smp (see ParallelMode), and smartai.endgame is the number of
+     * empty squares from which the endgame is solved exactly (default 16). If smartai.weights names a
+     * weight file (see PatternEvaluator), 8x8 positions are evaluated with its pattern weights, and if
+     * smartai.book names an opening book (see OpeningBook), its moves are played without searching.
+     * If smartai.probcut names a ProbCut parameter file, the search is selective (see setProbCut), with
+     * the cut threshold smartai.cut (default 1.5).
+     * smartai.ponder=true turns on pondering (see setPondering). smartai.statslog writes the statistics
+     * of every move as a line of JSON to stdout, stderr or the named file (see setStatisticsLog), and
+     * smartai.jmx=true registers the statistics as an MBean (see registerMBean).
+     */
+    public SmartAI() {
+        this(Integer.getInteger("smartai.hash", DEFAULT_HASH_MB));
+        setTimeLimit(Long.getLong("smartai.time", DEFAULT_TIME_MILLIS));
+        setMaxDepth(Integer.getInteger("smartai.depth", Integer.MAX_VALUE));
+        setThreads(Integer.getInteger("smartai.threads", 1));
+        setParallelMode(ParallelMode.valueOf(System.getProperty("smartai.parallel", "root_split").toUpperCase()));
+        setEndgameEmpties(Integer.getInteger("smartai.endgame", DEFAULT_ENDGAME_EMPTIES));
+        String weights = System.getProperty("smartai.weights");
+        if (weights != null) {
+            try {
+                setPatternWeights(PatternEvaluator.Weights.load(weights));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load the weights in " + weights, e);
+            }
+        }
+        String probCut = System.getProperty("smartai.probcut");
+        if (probCut != null) {
+            try {
+                setProbCut(ProbCut.load(probCut));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load the ProbCut parameters in " + probCut, e);
+            }
+        }
+        String cut = System.getProperty("smartai.cut");
+        if (cut != null)
+            setCutThreshold(Double.parseDouble(cut));
+        setPondering(Boolean.getBoolean("smartai.ponder"));
+        String log = System.getProperty("smartai.statslog");
+        if ("stdout".equals(log))
+            setStatisticsLog(System.out);
+        else if ("stderr".equals(log))
+            setStatisticsLog(System.err);
+        else if (log != null) {
+            try {
+                setStatisticsLog(new PrintStream(new FileOutputStream(log, true), true));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the statistics log " + log, e);
+            }
+        }
+        if (Boolean.getBoolean("smartai.jmx")) {
+            try {
+                registerMBean();
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register the statistics MBean", e);
+            }
+        }
+        String book = System.getProperty("smartai.book");
+        if (book != null) {
+            try {
+                setOpeningBook(OpeningBook.open(book));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the opening book " + book, e);
+            }
+        }
+    }
+
+    /**
+     * Creates the AI with the default table size and time budget, searching with the given number of
+     * threads in the given parallel mode.
+     */
+    public SmartAI(int threads, ParallelMode mode) {
+        this(DEFAULT_HASH_MB);
+        setThreads(threads);
+        setParallelMode(mode);
+    }
+
+    /**
+     * Creates the AI with a transposition table using the given number of megabytes, the default
+     * time budget, no depth limit and one search thread.
+     */
+    public SmartAI(int hashMegabytes) {
+        table = new TranspositionTable(hashMegabytes);
+        timeLimitMillis = DEFAULT_TIME_MILLIS;
+        maxDepth = Integer.MAX_VALUE;
+        mainSearcher = newSearcher();
+    }
+
+    /**
+     * Sets the number of nodes each search thread may visit per move, 0 for no limit. Like the time
+     * budget, it stops the iteration that reaches it, and the best move of the deepest completed iteration
+     * is played. The nodes of ProbCut's shallow searches count towards it. It is checked every
+     * Searcher.TIME_CHECK_INTERVAL nodes, and does not apply to the endgame solver.
+     */
+    public void setNodeLimit(long nodes) {
+        nodeLimit = nodes;
+    }
+
+    /**
+     * Sets the time budget for each move in milliseconds. The search deepens one ply at a time until
+     * the budget is spent, and returns the best move of the deepest completed iteration.
+     * 0 means no budget, so only the depth limit stops the search.
+     */
+    public void setTimeLimit(long millis) {
+        timeLimitMillis = millis;
+    }
+
+    /**
+     * Sets the deepest iteration (in plies) the search goes to.
+     */
+    public void setMaxDepth(int depth) {
+        maxDepth = Math.max(1, depth);
+    }
+
+    /**
+     * Sets the number of threads to search with. How they share the work is set with setParallelMode.
+     * In ROOT_SPLIT mode the first move at the root is searched on its own, and the remaining root moves
+     * are then searched in parallel in a ForkJoinPool, each starting from the best score found so far.
+     * All threads share the transposition table.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets how more than one search thread share the work, see ParallelMode.
+     */
+    public void setParallelMode(ParallelMode mode) {
+        parallelMode = mode;
+    }
+
+    /**
+     * Sets the pattern weights the search evaluates 8x8 positions with (see PatternEvaluator), or null
+     * to evaluate with Utility. Finished games are always scored by Utility.
+     */
+    public void setPatternWeights(PatternEvaluator.Weights weights) {
+        patternWeights = weights;
+    }
+
+    PatternEvaluator.Weights getPatternWeights() {
+        return patternWeights;
+    }
+
+    /**
+     * Sets the parameters of Multi-ProbCut (see ProbCut), or null to search every move to the full depth.
+     * With them the search cuts off the nodes whose value a shallow search predicts to be outside the
+     * window, which lets it search deeper in the same time at the risk of missing some moves. They are
+     * only used on boards of the size they were calibrated for.
+     */
+    public void setProbCut(ProbCut probCut) {
+        this.probCut = probCut;
+    }
 
-    private static int MAX_DEPTH = 7;
+    ProbCut getProbCut() {
+        return probCut;
+    }
+
+    /**
+     * Sets how many standard deviations of the ProbCut prediction the value of a node must be outside the
+     * window to be cut off. The lower it is, the more nodes are cut off and the more of them wrongly.
+     */
+    public void setCutThreshold(double threshold) {
+        cutThreshold = threshold;
+    }
+
+    double getCutThreshold() {
+        return cutThreshold;
+    }
+
+    /**
+     * Sets the opening book whose moves are played without searching, or null for none. The book can be
+     * shared by several AIs, and counts the hits and misses of all of them.
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Returns the opening book, or null if there is none.
+     */
+    public OpeningBook getOpeningBook() {
+        return book;
+    }
+
+    /**
+     * Sets the listener told about the progress of every search, or null for none.
+     */
+    public void setProgressListener(ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Makes the running call of decideMove return as soon as possible, with the best move of its last
+     * completed iteration (or any legal move if none has completed). On a ponder hit this stops the ponder
+     * search that decideMove is waiting for. It can be called from any thread, and has no effect when no
+     * decideMove is running; a ponder search between moves is stopped with stopPondering.
+     */
+    public void stop() {
+        decideToken.set(true);
+    }
+
+    /**
+     * Returns the transposition table. The table is kept between moves.
+     */
+    public TranspositionTable getTranspositionTable() {
+        return table;
+    }
+
+    /**
+     * Returns the transposition table statistics of all search threads since the AI was created.
+     */
+    public TranspositionTable.Statistics getTableStatistics() {
+        var total = new TranspositionTable.Statistics();
+        for (Searcher s : searchers)
+            total.add(s.tableStats);
+        return total;
+    }
+
+    /**
+     * Returns the number of nodes visited by all threads in the latest call to decideMove.
+     */
+    public long getNodes() {
+        return resultNodes;
+    }
+
+    // Returns the number of nodes visited by all threads in the current or latest search
+    private long countNodes() {
+        long nodes = solver.nodes;
+        for (Searcher s : searchers)
+            nodes += s.nodes;
+        return nodes;
+    }
+
+    /**
+     * Returns the fraction of the cutoffs in all searches so far that were caused by the first move
+     * searched at the node. The closer to 1, the better the move ordering works.
+     */
+    public double getFirstMoveCutoffRate() {
+        long cutoffs = 0;
+        long first = 0;
+        for (Searcher s : searchers) {
+            cutoffs += s.orderer.cutoffs;
+            first += s.orderer.firstMoveCutoffs;
+        }
+        return cutoffs == 0 ? 0 : (double) first / cutoffs;
+    }
+
+    /**
+     * Returns the principal variation of the latest call to decideMove, which must have been given the
+     * state: the move it returned followed by the moves the search expects, up to the depth of the search.
+     * The moves are col*size+row, and -1 for a pass. The search collects the line as it goes; where it
+     * took the value of a position from the transposition table, the line goes on with the moves the
+     * table holds. The line ends early where the table has no move for a position (for instance after a
+     * book move).
+     */
+    public int[] getPrincipalVariation(GameState state) {
+        var copy = new GameState(state.getBoard(), state.getPlayerInTurn());
+        // The line of the search, if it is the line of the move returned
+        int[] known = resultPv.length > 0 && resultPv[0] == resultMove ? resultPv : new int[] {resultMove};
+        var line = new ArrayList<Integer>();
+        for (int move = resultMove; move != -1 && line.size() < Math.max(1, resultDepth); ) {
+            if (copy.applyMove(move) == GameState.ILLEGAL_MOVE)
+                break;
+            line.add(move);
+            if (copy.isFinished())
+                break;
+            if (copy.mustPass()) {
+                copy.changePlayer();
+                line.add(Searcher.PASS);
+            }
+            if (line.size() < known.length)
+                move = known[line.size()];
+            else {
+                long entry = table.probe(Searcher.key(copy, state.getPlayerInTurn()), mainSearcher.tableStats);
+                move = entry != 0 ? TranspositionTable.move(entry) : TranspositionTable.NO_MOVE;
+            }
+        }
+        return line.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns the score of the move chosen by the latest call to decideMove, for the player who was in
+     * turn, as in Utility. A move found by the exact endgame solver scores WIN_SCORE plus the final disc
+     * differential for a win, and a book move has the score it was given when the book was built.
+     */
+    public int getScore() {
+        return resultScore;
+    }
+
+    /**
+     * Returns the depth of the deepest iteration completed by the latest call to decideMove.
+     */
+    public int getCompletedDepth() {
+        return resultDepth;
+    }
 
 	/**
-	 * Returns first legal move
+	 * Returns the move found by an iterative deepening alpha-beta search, which searches to depth 1, 2, 3...
+	 * until the time budget is spent, the depth limit is reached or the search sees the end of the game in
+	 * every line. Each iteration is a principal variation search (see Searcher) with an aspiration window
+	 * around the score of the previous one. From setEndgameEmpties empty squares on, the move is found by
+	 * the exact endgame solver if it finishes in time.
 	 */
 	public Position decideMove(GameState state){
-        var m = MAXVALUE(state, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, state.getPlayerInTurn());
-        return m.move;
+        int size = state.getSize();
+        var token = new AtomicBoolean();
+        decideToken = token;
+        // A ponder search of this position may already have found the move
+        int move = finishPondering(state, token);
+        stopToken = token;
+        solver.stopToken = token;
+        if (move == -1)
+            move = think(state, false);
+        resultMove = move;
+        resultPv = principalVariation;
+        resultScore = score;
+        resultDepth = completedDepth;
+        resultNodes = countNodes();
+        if (SearchStatistics.ENABLED)
+            finishStatistics(move == -1 ? new Position(-1, -1) : new Position(move / size, move % size));
+        if (pondering && move != -1)
+            startPondering(state, move);
+        if (move == -1)
+            return new Position(-1, -1);
+        return new Position(move / size, move % size);
 	}
-    
-    public static UtilMove MAXVALUE(GameState state, int alpha, int beta, int counter, int player) {
-        // Checks if the game is finished or if the maximum depth has been reached
-        // Then returns the utility at this position
-        if (state.isFinished() || counter > MAX_DEPTH) {
-            return new UtilMove(Utility(state, player), null);
-        }
-
-        // helper variables
-        int v = Integer.MIN_VALUE;
-        var moves = state.legalMoves();
-        Position move = null;
-
-        for (var m : moves) {
-            //Creates new identical state so as to not insert token on the actual game state
-            var newState = new GameState(state.getBoard(), state.getPlayerInTurn());
-            if (!newState.insertToken(m)) break;
-            
-            //if it's the AI's turn, call MAXVALUE, else MINVALUE
-            UtilMove utilMove = state.getPlayerInTurn() == player ? MAXVALUE(newState, alpha, beta, counter + 1, player) : MINVALUE(newState, alpha, beta, counter + 1, player);
-
-            //If the utulity of this move is preferable to the current best?
-            if (utilMove.util > v || move == null){
-                v = utilMove.util;
-                move = m;
-                alpha = Math.max(alpha, v);
-            }
 
-            // Beta cut
-            if (v >= beta) 
-                return new UtilMove(v, move);
-        }
-        //If the utulity of this move is preferable to the current best?
-        return new UtilMove(v, move);
-    }
-
-    public static UtilMove MINVALUE(GameState state, int alpha, int beta, int counter, int player) {
-        // Checks if the game is finished or if the maximum depth has been reached
-        // Then returns the utility at this position
-        if (state.isFinished() || counter > MAX_DEPTH) {
-            return new UtilMove(Utility(state, player), null);
-        }
-        
-        // Helper variables
-        int v = Integer.MAX_VALUE;
-        var moves = state.legalMoves();
-        Position move = null;
-
-        for (var m : moves) {
-            //Creates new identical state so as to not insert token on the actual game state
-            var newState = new GameState(state.getBoard(), state.getPlayerInTurn());
-            if (!newState.insertToken(m)) break;
-            
-            //if it's the AI's turn, call MAXVALUE, else MINVALUE
-            UtilMove utilMove = state.getPlayerInTurn() == player ? MAXVALUE(newState, alpha, beta, counter + 1, player) : MINVALUE(newState, alpha, beta, counter + 1, player);
-            
-            //If the utulity of this move is preferable to the current best?
-            if (utilMove.util < v || move == null){
-                v = utilMove.util;
-                move = m;
-                beta = Math.min(beta, v);
+    // Searches the state and returns the best move (col*size+row), or -1 if there is none. A ponder search
+    // runs until it is stopped or its deadline is set by finishPondering, and returns -1 if it is stopped
+    // before its first iteration is done.
+    private int think(GameState state, boolean ponder) {
+        // The search plays and takes back moves on its own copy, so the given state is left untouched
+        var searchState = new GameState(state.getBoard(), state.getPlayerInTurn());
+        int player = state.getPlayerInTurn();
+        boardSize = state.getSize();
+        // A game can not last longer than two plies (a move and a pass) per empty square
+        depthLimit = Math.min(maxDepth, 2 * boardSize * boardSize);
+        mainSearcher.ensureBuffers(boardSize, depthLimit);
+        mainSearcher.setPosition(searchState, player);
+        for (Searcher s : searchers) {
+            s.nodes = 0;
+            s.probeNodes = 0;
+            s.orderer.newSearch();
+        }
+        if (threads > 1 && (pool == null || pool.getParallelism() != threads)) {
+            if (pool != null)
+                pool.shutdown();
+            pool = new ForkJoinPool(threads);
+        } else if (threads <= 1 && pool != null) {
+            // Back to one thread: the idle pool would keep its threads, and through them this AI
+            pool.shutdown();
+            pool = null;
+        }
+
+        // Near the end of the game the exact solver gets most of the time, and the normal search only
+        // runs first to have a move in case the solver does not finish
+        int[] tokens = state.countTokens();
+        int empties = boardSize * boardSize - tokens[0] - tokens[1];
+        boolean endgame = empties <= endgameEmpties;
+        solver.nodes = 0;
+        completedDepth = 0;
+        principalVariation = new int[0];
+        thinkStart = System.nanoTime();
+        if (SearchStatistics.ENABLED) {
+            countersAtStart = counters();
+            iterationNodes = new long[0];
+            iterationNanos = new long[0];
+        }
+
+        // Positions in the opening book are played without searching
+        if (book != null && !ponder) {
+            int move = book.lookup(state);
+            if (move != -1) {
+                score = book.score(state);
+                principalVariation = new int[] {move};
+                return move;
             }
+        }
 
-            // Alpha cut
-            if (v <= alpha) 
-                return new UtilMove(v, move);
-            
+        long start = System.nanoTime();
+        long end = timeLimitMillis > 0 ? start + timeLimitMillis * 1000000 : Long.MAX_VALUE;
+        if (!ponder) {
+            // The deadline and the aborted flag of a ponder search are set by startPondering and finishPondering
+            deadline = endgame && timeLimitMillis > 0 ? start + timeLimitMillis * 1000000 / 4 : end;
+            aborted = stopToken.get();
+        }
+        table.newSearch();
+        boolean split = threads > 1 && parallelMode == ParallelMode.ROOT_SPLIT;
+        List<ForkJoinTask<?>> helpers = threads > 1 && parallelMode == ParallelMode.LAZY_SMP
+                ? startHelpers(searchState) : List.of();
+        int bestMove = -1;
+        boolean exact = false;
+        int previousScore = 0; // Score of the iteration before the latest completed one
+        for (int depth = 1; depth <= depthLimit; depth++) {
+            // From the third iteration on, the window is centred on the score of the previous iteration,
+            // as wide as the score changed between the two before it
+            int width = depth > 2 ? Math.max(MIN_ASPIRATION_WIDTH, Math.abs(score - previousScore)) : 0;
+            int move = searchIteration(searchState, depth, split, score, width);
+            if (aborted)
+                break;
+            bestMove = move;
+            previousScore = score;
+            score = iterationScore;
+            principalVariation = iterationPv;
+            completedDepth = depth;
+            if (SearchStatistics.ENABLED) {
+                iterationNodes = Arrays.copyOf(iterationNodes, depth);
+                iterationNanos = Arrays.copyOf(iterationNanos, depth);
+                iterationNodes[depth - 1] = countNodes();
+                iterationNanos[depth - 1] = System.nanoTime() - thinkStart;
+            }
+            if (!ponder)
+                reportProgress(bestMove, start);
+            exact = split ? !horizonReached() : !mainSearcher.horizonReached;
+            if (exact)
+                break; // Every line reached the end of the game, deeper iterations would find the same
+            // The next iteration takes several times longer than this one, so it is not started
+            // if it is unlikely to finish
+            if (timeLimitMillis > 0 && System.nanoTime() - start > (deadline - start) / 2)
+                break;
+        }
+        if (!helpers.isEmpty()) {
+            stopHelpers(helpers);
+            // A helper that got further than the main thread has the better move, and the score and
+            // line that go with it
+            var result = helperResult.get();
+            if (result.depth > completedDepth) {
+                completedDepth = result.depth;
+                bestMove = result.move;
+                score = result.score;
+                principalVariation = result.pv;
+            }
+        }
+        if (endgame && !exact && bestMove != -1 && !ponder && !stopToken.get()) {
+            int solved = solver.solve(searchState, end);
+            if (solved != -1) {
+                bestMove = solved;
+                int diff = solver.getScore();
+                score = diff > 0 ? WIN_SCORE + diff : (diff < 0 ? -WIN_SCORE + diff : 0);
+                completedDepth = empties;
+                principalVariation = new int[] {bestMove};
+                reportProgress(bestMove, start);
+            }
         }
-        // returns the utility and the associated move
-        return new UtilMove(v, move);
+        if (bestMove == -1 && !ponder)
+            bestMove = firstLegalMove(searchState);
+        return bestMove;
     }
-	
-    //Evaluater function
-    public static int Utility(GameState state, int player) {
-        var tokens = state.countTokens();
 
-        var score = (player == 1 ? 1 : -1) * (tokens[0] - tokens[1]);
-
-        // Returns infinity because a win is better than going for more points
-        if (state.isFinished())
-            return score > 0 ? Integer.MAX_VALUE : (score < 0 ? Integer.MIN_VALUE : 0);
+    private void reportProgress(int move, long start) {
+        var listener = progressListener;
+        if (listener != null)
+            listener.progress(completedDepth, new Position(move / boardSize, move % boardSize), score, countNodes(),
+                    System.nanoTime() - start);
+    }
 
-        //Early game you want as few tokens as possible
-        if ((tokens[0] + tokens[1]) < Math.pow(state.getBoard().length, 2) / 3) 
-            score *= -1;
-        
-        var board = state.getBoard();
-        var boardX = board.length - 1;
-        var boardY = board[0].length - 1;
+    //************ Statistics ****************//
 
-        var scores = new int[3];
+    /**
+     * Returns the statistics of the latest call to decideMove, or null if there has been none or the
+     * statistics are turned off (see SearchStatistics). After a ponder hit they cover the ponder search
+     * from its start.
+     */
+    public SearchStatistics getStatistics() {
+        return statistics;
+    }
 
-        //corners +10 utility
-        scores[board[0][0]] += 9;
-        
-        scores[board[boardX][0]] += 9;
+    /**
+     * Sets the stream to which the statistics of every move are written as a line of JSON (see
+     * SearchStatistics.toJson), or null for none.
+     */
+    public void setStatisticsLog(PrintStream log) {
+        statisticsLog = log;
+    }
 
-        scores[board[0][boardY]] += 9;
+    /**
+     * Registers the statistics of this AI with the platform MBean server, so they can be watched with
+     * JConsole or another JMX client, and returns the name they are registered under.
+     */
+    public synchronized ObjectName registerMBean() throws JMException {
+        if (mbeanName == null) {
+            var name = new ObjectName("OthelloBot:type=SmartAI,id=" + Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Monitor(), SearchStatisticsMBean.class), name);
+            mbeanName = name;
+        }
+        return mbeanName;
+    }
 
-        scores[board[boardX][boardY]] += 9;
+    /**
+     * Removes the MBean registered by registerMBean, so the AI can be garbage collected.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (mbeanName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            mbeanName = null;
+        }
+    }
 
-        //squares beside corners -5 utility
-        if (board[0][0] != player){
-            scores[board[0][1]] -= 6;
-            scores[board[1][1]] -= 6;
-            scores[board[1][0]] -= 6;
+    // Returns the counters of the statistics added up over all threads: nodes, evaluations, cutoffs,
+    // first move cutoffs, table probes, table hits, table cutoffs and ProbCut nodes
+    private long[] counters() {
+        long[] counters = new long[8];
+        counters[0] = countNodes();
+        for (Searcher s : searchers) {
+            counters[1] += s.evaluations;
+            counters[2] += s.orderer.cutoffs;
+            counters[3] += s.orderer.firstMoveCutoffs;
+            counters[4] += s.tableStats.probes;
+            counters[5] += s.tableStats.hits;
+            counters[6] += s.tableCutoffs;
+            counters[7] += s.probeNodes;
         }
-        
-        if (board[boardX][0] != player) {
-            scores[board[boardX][1]] -= 6;
-            scores[board[boardX - 1][1]] -= 6;
-            scores[board[boardX - 1][0]] -= 6;
+        return counters;
+    }
+
+    private void finishStatistics(Position move) {
+        long nanos = System.nanoTime() - thinkStart;
+        long[] counters = counters();
+        for (int i = 1; i < counters.length; i++)
+            counters[i] -= countersAtStart[i];
+        var stats = new SearchStatistics(resultDepth, resultScore, nanos, counters, iterationNodes, iterationNanos);
+        statistics = stats;
+        moves++;
+        totalNodes += stats.nodes;
+        totalNanos += nanos;
+        var log = statisticsLog;
+        if (log != null)
+            log.println(stats.toJson(move));
+    }
+
+    // The MBean of registerMBean, showing zeros until the first move
+    private final class Monitor implements SearchStatisticsMBean {
+        private final SearchStatistics none = new SearchStatistics(0, 0, 0, new long[8], new long[0], new long[0]);
+
+        private SearchStatistics latest() {
+            var stats = statistics;
+            return stats != null ? stats : none;
         }
 
-        if (board[0][boardY] != player) {
-            scores[board[1][boardY]] -= 6;
-            scores[board[1][boardY - 1]] -= 6;
-            scores[board[0][boardY - 1]] -= 6;
+        public long getMoves() { return moves; }
+        public long getTotalNodes() { return totalNodes; }
+        public double getTotalMillis() { return totalNanos / 1e6; }
+        public int getDepth() { return latest().getDepth(); }
+        public int getScore() { return latest().getScore(); }
+        public double getMillis() { return latest().getNanos() / 1e6; }
+        public long getNodes() { return latest().getNodes(); }
+        public double getNodesPerSecond() { return latest().getNodesPerSecond(); }
+        public long getEvaluations() { return latest().getEvaluations(); }
+        public long getCutoffs() { return latest().getCutoffs(); }
+        public double getFirstMoveCutoffRate() { return latest().getFirstMoveCutoffRate(); }
+        public double getBranchingFactor() { return latest().getBranchingFactor(); }
+        public long getTableProbes() { return latest().getTableProbes(); }
+        public long getTableHits() { return latest().getTableHits(); }
+        public long getTableCutoffs() { return latest().getTableCutoffs(); }
+        public long getProbCutNodes() { return latest().getProbCutNodes(); }
+        public double[] getIterationMillis() { return latest().getIterationMillis(); }
+        public long[] getIterationNodes() { return latest().getIterationNodes(); }
+    }
+
+    /**
+     * Stops pondering, shuts down the thread pool of the search threads and unregisters the MBean. The
+     * threads of the pool hold on to their Searchers and through them to the AI and its transposition
+     * table, so an AI searching with more than one thread must be closed when it is no longer used, or
+     * its memory is not freed. It must not be called during decideMove. The AI can still be used
+     * afterwards, and then starts a new pool.
+     */
+    @Override
+    public synchronized void close() {
+        stopPondering();
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        try {
+            unregisterMBean();
+        } catch (JMException e) {
+            // It is not registered any more
         }
+    }
+
+    //************ Pondering ****************//
+
+    /**
+     * Turns pondering on or off. When it is on, decideMove predicts the opponent's reply to the move it
+     * returns (the reply its search expects) and goes on searching the resulting position in a background
+     * thread while the opponent thinks. If the opponent does play the predicted reply (a ponder hit), the
+     * next decideMove lets that search finish within the time budget counted from when it started, so it
+     * often returns at once. Otherwise the search is stopped, and the next one starts with the transposition
+     * table and the move ordering it has filled.
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+        if (!pondering)
+            stopPondering();
+    }
+
+    /**
+     * Stops the ponder search, if one is running, and waits until it has stopped (which takes at most a
+     * few thousand nodes).
+     */
+    public void stopPondering() {
+        if (ponderThread == null)
+            return;
+        aborted = true;
+        joinPonderThread();
+    }
 
-        if (board[boardX][boardY] != player) {
-            scores[board[boardX - 1][boardY]] -= 6;
-            scores[board[boardX - 1][boardY - 1]] -= 6;
-            scores[board[boardX][boardY - 1]] -= 6;
+    /** Returns the number of times the opponent played the predicted reply. */
+    public long getPonderHits() {
+        return ponderHits;
+    }
+
+    /** Returns the number of times the opponent played another move than the predicted one. */
+    public long getPonderMisses() {
+        return ponderMisses;
+    }
+
+    // Starts searching the position after the given move and the reply the search predicts for it, if
+    // there is a prediction and the position is the AI's to play and neither in the book nor left to the
+    // endgame solver
+    private void startPondering(GameState state, int move) {
+        int player = state.getPlayerInTurn();
+        var predicted = new GameState(state.getBoard(), player);
+        predicted.applyMove(move);
+        if (predicted.mustPass())
+            predicted.changePlayer();
+        else if (!predicted.isFinished()) {
+            // The reply in the principal variation, or else the one in the table
+            int reply = resultPv.length > 1 && resultPv[0] == move ? resultPv[1] : TranspositionTable.NO_MOVE;
+            if (reply == TranspositionTable.NO_MOVE) {
+                long entry = table.probe(Searcher.key(predicted, player), mainSearcher.tableStats);
+                reply = entry != 0 ? TranspositionTable.move(entry) : TranspositionTable.NO_MOVE;
+            }
+            if (reply == TranspositionTable.NO_MOVE || predicted.applyMove(reply) == GameState.ILLEGAL_MOVE)
+                return;
         }
+        int empties = predicted.getSize() * predicted.getSize() - predicted.getTokens(1) - predicted.getTokens(2);
+        if (predicted.getPlayerInTurn() != player || predicted.getMobility(player) == 0 || empties <= endgameEmpties
+                || (book != null && book.contains(predicted)))
+            return;
 
-        //sides +3 utility
-        for (int i = 2; i <= boardX - 2; i++) {
-            scores[board[i][0]] += 2;
-            scores[board[0][i]] += 2;
-            scores[board[boardX][i]] += 2;
-            scores[board[i][boardY]] += 2;
+        ponderState = predicted;
+        ponderMove = -1;
+        aborted = false;
+        deadline = Long.MAX_VALUE;
+        ponderStart = System.nanoTime();
+        stopToken = new AtomicBoolean();
+        var copy = new GameState(predicted.getBoard(), player);
+        ponderThread = new Thread(() -> ponderMove = think(copy, true), "SmartAI ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    // Ends the ponder search, if one is running. On a ponder hit (the search is of the given state) the
+    // search gets the rest of its time budget and the stop token of the decideMove, and its move is
+    // returned. Otherwise it is stopped and -1 is returned, as it is if there was no ponder search or it
+    // did not finish an iteration.
+    private int finishPondering(GameState state, AtomicBoolean token) {
+        if (ponderThread == null)
+            return -1;
+        boolean hit = state.getHash() == ponderState.getHash() && state.getPlayerInTurn() == ponderState.getPlayerInTurn()
+                && Arrays.deepEquals(state.getBoard(), ponderState.getBoard());
+        if (hit) {
+            ponderHits++;
+            stopToken = token;
+            // If the opponent took longer than the budget, the search stops at once
+            if (timeLimitMillis > 0)
+                deadline = ponderStart + timeLimitMillis * 1000000;
+        }
+        else {
+            ponderMisses++;
+            aborted = true;
         }
+        joinPonderThread();
+        return hit ? ponderMove : -1;
+    }
 
-        if (board[0][0] != 0) {
-            scores[board[0][1]] += 2;
-            scores[board[1][0]] += 2;
+    private void joinPonderThread() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                ponderThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // The search stops soon anyway, so it is waited for
+            }
         }
+        ponderThread = null;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Sets the number of empty squares from which the exact endgame solver is used (see EndgameSolver).
+     * The solver gets three quarters of the time budget; if it does not finish, the move of the normal
+     * search is played.
+     */
+    public void setEndgameEmpties(int empties) {
+        endgameEmpties = empties;
+    }
 
-        if (board[boardX][0] != 0) {
-            scores[board[boardX][1]] += 2;
-            scores[board[boardX - 1][0]] += 2;
+    // Runs the iteration to the given depth and returns the best move at the root. With a width, the
+    // search starts with the aspiration window expected - width..expected + width, which cuts off more than
+    // the full window. If the score falls outside it, the window is widened on that side and the iteration
+    // searched again, until the score is inside.
+    private int searchIteration(GameState state, int depth, boolean split, int expected, int width) {
+        boolean aspirate = width > 0 && Math.abs(expected) < WIN_SCORE / 2;
+        int alpha = aspirate ? expected - width : -Searcher.INFINITY;
+        int beta = aspirate ? expected + width : Searcher.INFINITY;
+        while (true) {
+            // Lazy SMP helpers manage their own iterations
+            for (Searcher s : split ? searchers : List.of(mainSearcher)) {
+                s.searchDepth = depth;
+                s.horizonReached = false;
+            }
+            // The best move of the previous iteration is tried first, as the table holds it for the root
+            int move = split ? searchRootParallel(state, alpha, beta) : searchRoot(state, alpha, beta);
+            if (aborted || (iterationScore > alpha && iterationScore < beta))
+                return move;
+            width = width >= WIN_SCORE / 2 ? WIN_SCORE : width * ASPIRATION_GROWTH;
+            if (iterationScore <= alpha)
+                alpha = width >= WIN_SCORE / 2 ? -Searcher.INFINITY : expected - width;
+            else
+                beta = width >= WIN_SCORE / 2 ? Searcher.INFINITY : expected + width;
         }
+    }
 
-        if (board[0][boardY] != 0) {
-            scores[board[1][boardY]] += 2;
-            scores[board[0][boardY - 1]] += 2;
+    // Runs one iteration on the calling thread and returns the best move at the root
+    private int searchRoot(GameState state, int alpha, int beta) {
+        mainSearcher.rootMove = -1;
+        iterationScore = mainSearcher.search(state, alpha, beta, 0);
+        iterationPv = mainSearcher.principalVariation();
+        return mainSearcher.rootMove;
+    }
+
+    // Runs one iteration with Young Brothers Wait at the root and returns the best move at the root
+    private int searchRootParallel(GameState state, int alpha, int beta) {
+        int[] moves = mainSearcher.moveBuffers[0];
+        int moveCount = state.legalMoves(moves);
+        if (moveCount == 0)
+            return searchRoot(state, alpha, beta); // A pass, which leaves nothing to split
+        long key = Searcher.key(state, mainSearcher.player);
+        long entry = table.probe(key, mainSearcher.tableStats);
+        mainSearcher.orderer.order(moves, moveCount, entry != 0 ? TranspositionTable.move(entry) : -1, 0);
+
+        // The eldest brother is searched first to get a score the other moves have to beat
+        long undo = mainSearcher.play(state, moves[0]);
+        int first = -mainSearcher.search(state, -beta, -alpha, 1);
+        mainSearcher.takeBack(state, moves[0], undo);
+        if (aborted)
+            return -1;
+        int[] firstPv = childLine(mainSearcher, moves[0]);
+
+        // Best score and move so far, packed in one long (score in the high half) so both are updated at
+        // once, and the principal variation of the best move, which is updated with them under its lock
+        var best = new AtomicLong(pack(first, moves[0]));
+        var bestPv = new int[][] {firstPv};
+        var tasks = new ArrayList<Callable<Void>>(moveCount - 1);
+        for (int i = 1; i < moveCount && first < beta; i++) {
+            int m = moves[i];
+            tasks.add(() -> {
+                Searcher searcher = workerSearchers.get();
+                searcher.ensureBuffers(boardSize, depthLimit);
+                searcher.searchDepth = mainSearcher.searchDepth;
+                var child = new GameState(state.getBoard(), state.getPlayerInTurn());
+                child.applyMove(m);
+                searcher.setPosition(child, mainSearcher.player);
+                // A null window shows whether the move beats the best so far, which is searched again to
+                // get its score if it does
+                int bound = Math.max(alpha, (int) (best.get() >> 32));
+                int util = -searcher.search(child, -bound - 1, -bound, 1);
+                if (util > bound && util < beta && !aborted)
+                    util = -searcher.search(child, -beta, -bound, 1);
+                if (!aborted) {
+                    synchronized (bestPv) {
+                        if (util > (int) (best.get() >> 32)) {
+                            best.set(pack(util, m));
+                            bestPv[0] = childLine(searcher, m);
+                        }
+                    }
+                }
+                return null;
+            });
         }
+        pool.invokeAll(tasks);
+        if (aborted)
+            return -1;
+
+        iterationScore = (int) (best.get() >> 32);
+        iterationPv = bestPv[0];
+        int move = (int) best.get();
+        int depth = horizonReached() ? mainSearcher.searchDepth : Searcher.SOLVED;
+        int bound = iterationScore >= beta ? TranspositionTable.LOWER
+                : (iterationScore <= alpha ? TranspositionTable.UPPER : TranspositionTable.EXACT);
+        table.store(key, depth, bound, iterationScore, move, mainSearcher.tableStats);
+        return move;
+    }
 
-        if (board[boardX][boardY] != 0) {
-            scores[board[boardX][boardY - 1]] += 2;
-            scores[board[boardX - 1][boardY]] += 2;
+    // Returns the move at the root followed by the principal variation the searcher found after it
+    private static int[] childLine(Searcher searcher, int move) {
+        int length = searcher.pvLength[1];
+        int[] line = new int[Math.max(1, length)];
+        line[0] = move;
+        System.arraycopy(searcher.pv[1], 1, line, 1, length - 1);
+        return line;
+    }
+
+    // Starts the Lazy SMP helper threads on copies of the given state
+    private List<ForkJoinTask<?>> startHelpers(GameState state) {
+        helpersStopped = false;
+        helperResult.set(HelperResult.NONE);
+        List<ForkJoinTask<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < threads; i++) {
+            int index = i;
+            var copy = new GameState(state.getBoard(), state.getPlayerInTurn());
+            helpers.add(pool.submit(() -> runHelper(copy, index)));
         }
+        return helpers;
+    }
 
-        if (player == 1) {
-            score += scores[1];
-            score -= scores[2];
+    // Tells the helpers to stop and waits until they have
+    private void stopHelpers(List<ForkJoinTask<?>> helpers) {
+        helpersStopped = true;
+        for (var helper : helpers)
+            helper.join();
+    }
+
+    // Runs the iterative deepening search of a Lazy SMP helper until it is stopped. Odd helpers start a
+    // ply deeper than the main thread, so the threads are spread over two depths and fill the table with
+    // results the others can use.
+    private void runHelper(GameState state, int index) {
+        Searcher searcher = workerSearchers.get();
+        searcher.ensureBuffers(boardSize, depthLimit);
+        searcher.setPosition(state, state.getPlayerInTurn());
+        searcher.helper = true;
+        try {
+            for (int depth = 1 + index % 2; depth <= depthLimit; depth++) {
+                searcher.searchDepth = depth;
+                searcher.horizonReached = false;
+                searcher.rootMove = -1;
+                int score = searcher.search(state, -Searcher.INFINITY, Searcher.INFINITY, 0);
+                if (searcher.stopped())
+                    break;
+                var result = new HelperResult(depth, searcher.rootMove, score, searcher.principalVariation());
+                helperResult.accumulateAndGet(result, (a, b) -> b.depth > a.depth ? b : a);
+                if (!searcher.horizonReached)
+                    break;
+            }
         }
-        else {
-            score += scores[2];
-            score -= scores[1];
+        finally {
+            searcher.helper = false;
         }
-        return score;
     }
-    
-    // Used for returning both the utility and the position
-    static class UtilMove {
-        int util;
-        Position move;
 
-        public UtilMove(int util, Position move) {
-            this.util = util;
+    // An iteration completed by a Lazy SMP helper: its depth, best move, score and principal variation
+    private static final class HelperResult {
+        static final HelperResult NONE = new HelperResult(0, -1, 0, new int[0]);
+
+        final int depth;
+        final int move;
+        final int score;
+        final int[] pv;
+
+        HelperResult(int depth, int move, int score, int[] pv) {
+            this.depth = depth;
             this.move = move;
+            this.score = score;
+            this.pv = pv;
         }
+    }
 
-        @Override
-        public String toString() {
-            return "Utility: " + util + ", Move: " + (move != null ? move.toString() : "null");
+    private static long pack(int score, int move) {
+        return (long) score << 32 | (move & 0xFFFFFFFFL);
+    }
+
+    // Returns true if any search thread stopped a line of the current iteration before the end of the game
+    private boolean horizonReached() {
+        for (Searcher s : searchers) {
+            if (s.horizonReached)
+                return true;
         }
+        return false;
     }
-}
 
+    private Searcher newSearcher() {
+        var searcher = new Searcher(this);
+        searchers.add(searcher);
+        return searcher;
+    }
+
+    // Returns the first legal move, used if not even the first iteration finished in time
+    private int firstLegalMove(GameState state) {
+        int[] moves = mainSearcher.moveBuffers[0];
+        return state.legalMoves(moves) > 0 ? moves[0] : -1;
+    }
+
+    //Evaluater function
+    // The token counts and the fixed square values (corners and edges) are kept up to date by GameState as
+    // moves are played, so only the squares around the corners are read here
+    public static int Utility(GameState state, int player) {
+        var opponent = player == 1 ? 2 : 1;
+        var tokens = state.getTokens(player) + state.getTokens(opponent);
+
+        var score = state.getTokens(player) - state.getTokens(opponent);
+
+        // A win is better than going for more points, but a big win is better than a small one
+        if (state.isFinished())
+            return score > 0 ? WIN_SCORE + score : (score < 0 ? -WIN_SCORE + score : 0);
+
+        //Early game you want as few tokens as possible
+        var size = state.getSize();
+        if (3 * tokens < size * size)
+            score *= -1;
+
+        //corners +9 utility, sides +2 utility
+        score += state.getPositionalScore(player) - state.getPositionalScore(opponent);
+
+        var board = state.getBoard();
+        var boardX = size - 1;
+        var boardY = size - 1;
+        score += cornerRegion(board, 0, 0, 1, 1, player);
+        score += cornerRegion(board, boardX, 0, -1, 1, player);
+        score += cornerRegion(board, 0, boardY, 1, -1, player);
+        score += cornerRegion(board, boardX, boardY, -1, -1, player);
+        return score;
+    }
+
+    // Scores the squares next to the corner at col,row for the player; dx and dy point into the board.
+    // Squares beside a corner the player does not own are -6 for their owner, and the two edge squares
+    // beside an occupied corner are +2 for theirs.
+    private static int cornerRegion(int[][] board, int col, int row, int dx, int dy, int player) {
+        int corner = board[col][row];
+        int score = 0;
+        if (corner != player) {
+            score -= 6 * sign(board[col][row + dy], player);
+            score -= 6 * sign(board[col + dx][row + dy], player);
+            score -= 6 * sign(board[col + dx][row], player);
+        }
+        if (corner != 0) {
+            score += 2 * sign(board[col][row + dy], player);
+            score += 2 * sign(board[col + dx][row], player);
+        }
+        return score;
+    }
+
+    // 1 if the square holds a token of the player, -1 if of the opponent and 0 if it is empty
+    private static int sign(int square, int player) {
+        return square == 0 ? 0 : (square == player ? 1 : -1);
+    }
+}
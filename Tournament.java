@@ -0,0 +1,439 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays AI-vs-AI games without the GUI on a thread pool and reports the results: a match between two
+ * engines, or a round robin between more. Every pair of engines plays the given number of games. The
+ * games start from random openings, or with -b from openings taken from an opening book (see
+ * OpeningBook): the book is followed from the start position, choosing at random among the moves that
+ * lead to a position in the book, until the book ends. Either opening is as long as the given number of
+ * random plies at most. Each opening is played twice with the colours swapped, so neither engine gets
+ * the better side of an opening.
+ *
+ * For every pair the wins, losses and draws and the Elo difference with a 95% error bar are printed,
+ * and for every engine its total score, its average time per move and (for SmartAI) its nodes per second.
+ *
+ * An engine is given as an IOthelloAI class, optionally followed by options for SmartAI, such as
+ * SmartAI:time=200,depth=8 or SmartAI:threads=4,parallel=lazy_smp. The options are hash (megabytes),
+ * time (milliseconds per move), depth, threads, parallel, endgame, weights, book, ponder, probcut (a
+ * parameter file) and cut (see SmartAI). A selective search is compared with the full search by playing
+ * the same engine with and without probcut, as in SmartAI:probcut=probcut.bin SmartAI, and comparing
+ * the score with the time per move and the nodes per second.
+ * Every game uses new engines, so no game benefits from the transposition table of another, and they
+ * are closed after the game.
+ *
+ * With -o, every game is appended to a game file (see GameRecord), with the engines named by their specs.
+ *
+ * Usage: java Tournament [-g games per pair] [-t threads] [-s size] [-r random plies] [-seed seed] [-b book] [-o game file] engine1 engine2 [engine3...]
+ */
+public class Tournament {
+
+    private static final Map<String, PatternEvaluator.Weights> loadedWeights = new HashMap<>();
+    private static final Map<String, OpeningBook> openedBooks = new HashMap<>();
+    private static final Map<String, ProbCut> loadedProbCuts = new HashMap<>();
+
+    /**
+     * An engine taking part in the tournament, with the totals of its moves.
+     */
+    static final class Engine {
+        final String spec;
+        private final String className;
+        private final Map<String, String> options = new LinkedHashMap<>();
+        final LongAdder moves = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder nodes = new LongAdder();
+        final LongAdder searchNanos = new LongAdder(); // Time of the moves whose nodes are counted
+        final LongAdder ponderHits = new LongAdder();
+        final LongAdder ponderMisses = new LongAdder();
+
+        Engine(String spec) {
+            this.spec = spec;
+            int colon = spec.indexOf(':');
+            className = colon < 0 ? spec : spec.substring(0, colon);
+            if (colon >= 0) {
+                for (String option : spec.substring(colon + 1).split(",")) {
+                    String[] kv = option.split("=", 2);
+                    if (kv.length != 2)
+                        throw new IllegalArgumentException("Options must be key=value: " + option);
+                    options.put(kv[0].trim().toLowerCase(), kv[1].trim());
+                }
+            }
+        }
+
+        /**
+         * Returns a new instance of the engine with its options applied.
+         */
+        IOthelloAI create() throws Exception {
+            if (!className.equals("SmartAI")) {
+                if (!options.isEmpty())
+                    throw new IllegalArgumentException("Options are only supported for SmartAI: " + spec);
+                return Othello.parseGameLogicParam(className);
+            }
+            var ai = options.containsKey("hash") ? new SmartAI(Integer.parseInt(options.get("hash"))) : new SmartAI();
+            for (var option : options.entrySet())
+                configure(ai, option.getKey(), option.getValue());
+            return ai;
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+
+    /**
+     * Applies an engine option to a SmartAI.
+     * @throws IllegalArgumentException if the option is not known.
+     */
+    static void configure(SmartAI ai, String key, String value) throws Exception {
+        switch (key) {
+            case "hash": break; // Given to the constructor
+            case "time": ai.setTimeLimit(Long.parseLong(value)); break;
+            case "depth": ai.setMaxDepth(Integer.parseInt(value)); break;
+            case "threads": ai.setThreads(Integer.parseInt(value)); break;
+            case "parallel": ai.setParallelMode(SmartAI.ParallelMode.valueOf(value.toUpperCase())); break;
+            case "endgame": ai.setEndgameEmpties(Integer.parseInt(value)); break;
+            case "weights": ai.setPatternWeights(weights(value)); break;
+            case "book": ai.setOpeningBook(book(value)); break;
+            case "ponder": ai.setPondering(Boolean.parseBoolean(value)); break;
+            case "probcut": ai.setProbCut(probCut(value)); break;
+            case "cut": ai.setCutThreshold(Double.parseDouble(value)); break;
+            default: throw new IllegalArgumentException("Unknown SmartAI option " + key);
+        }
+    }
+
+    // Weight files are loaded once and shared by all engines using them
+    private static synchronized PatternEvaluator.Weights weights(String file) throws Exception {
+        var weights = loadedWeights.get(file);
+        if (weights == null) {
+            weights = PatternEvaluator.Weights.load(file);
+            loadedWeights.put(file, weights);
+        }
+        return weights;
+    }
+
+    // ProbCut parameter files are loaded once and shared by all engines using them
+    private static synchronized ProbCut probCut(String file) throws Exception {
+        var probCut = loadedProbCuts.get(file);
+        if (probCut == null) {
+            probCut = ProbCut.load(file);
+            loadedProbCuts.put(file, probCut);
+        }
+        return probCut;
+    }
+
+    // Opening books are opened once and shared by all engines using them
+    private static synchronized OpeningBook book(String file) throws Exception {
+        var book = openedBooks.get(file);
+        if (book == null) {
+            book = OpeningBook.open(file);
+            openedBooks.put(file, book);
+        }
+        return book;
+    }
+
+    /**
+     * The games between two engines, counted from the first engine's point of view.
+     */
+    static final class Pairing {
+        final Engine first;
+        final Engine second;
+        int wins;
+        int losses;
+        int draws;
+        int forfeits; // Games lost by either engine for playing an illegal move
+
+        Pairing(Engine first, Engine second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        synchronized void add(int result) {
+            if (result > 0)
+                wins++;
+            else if (result < 0)
+                losses++;
+            else
+                draws++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int gamesPerPair = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int size = 8;
+        int randomPlies = 6;
+        long seed = 1;
+        String gameFile = null;
+        String bookFile = null;
+        List<Engine> engines = new ArrayList<>();
+        var options = new Options(args, "Usage: java Tournament [-g games per pair] [-t threads] [-s size] [-r random plies] [-seed seed] [-b book] [-o game file] engine1 engine2 [engine3...]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-g": gamesPerPair = options.intValue(); break;
+                case "-t": threads = options.intValue(); break;
+                case "-s": size = options.intValue(); break;
+                case "-r": randomPlies = options.intValue(); break;
+                case "-seed": seed = options.longValue(); break;
+                case "-o": gameFile = options.value(); break;
+                case "-b": bookFile = options.value(); break;
+                default: engines.add(new Engine(options.argument()));
+            }
+        }
+        if (engines.size() < 2)
+            options.usage();
+        if (bookFile != null && size != BitBoard.SIZE) {
+            System.err.println("Book openings are only for 8x8 boards");
+            System.exit(1);
+        }
+        if (gameFile != null && size > GameRecord.MAX_SIZE) {
+            System.err.println("Games can only be recorded on boards up to " + GameRecord.MAX_SIZE + "x" + GameRecord.MAX_SIZE);
+            System.exit(1);
+        }
+        for (Engine e : engines)
+            SelfPlay.close(e.create()); // Fails early on unknown classes and options
+        OpeningBook openings = bookFile != null ? book(bookFile) : null;
+
+        List<Pairing> pairings = new ArrayList<>();
+        for (int i = 0; i < engines.size(); i++) {
+            for (int j = i + 1; j < engines.size(); j++)
+                pairings.add(new Pairing(engines.get(i), engines.get(j)));
+        }
+        int total = gamesPerPair * pairings.size();
+        System.out.printf("%d engines, %d games, %d threads%n", engines.size(), total, threads);
+
+        var random = new Random(seed);
+        var finished = new AtomicInteger();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        var records = gameFile != null ? new GameRecord.Writer(gameFile) : null;
+        List<Future<?>> games = new ArrayList<>();
+        for (Pairing pairing : pairings) {
+            GameRecord opening = null;
+            for (int game = 0; game < gamesPerPair; game++) {
+                // Each opening is played twice, with the first engine black in one game and white in the other
+                if (game % 2 == 0) {
+                    opening = openings != null ? bookOpening(openings, randomPlies, random)
+                                               : randomOpening(size, randomPlies, random);
+                }
+                var position = opening;
+                boolean firstIsBlack = game % 2 == 0;
+                int interval = Math.max(1, total / 20);
+                games.add(pool.submit(() -> {
+                    int result = play(pairing, position, firstIsBlack, records);
+                    pairing.add(result);
+                    int done = finished.incrementAndGet();
+                    if (done % interval == 0)
+                        System.out.printf("%d/%d games, %.1f s%n", done, total, (System.nanoTime() - start) / 1e9);
+                    return null;
+                }));
+            }
+        }
+        try {
+            for (Future<?> game : games)
+                game.get();
+        }
+        finally {
+            pool.shutdown();
+            if (records != null)
+                records.close();
+        }
+        report(engines, pairings);
+    }
+
+    /**
+     * Plays a game between the engines of the pairing after the moves of the opening and returns the
+     * result for the first engine: 1 for a win, -1 for a loss and 0 for a draw. An engine that plays an
+     * illegal move loses the game. Unless records is null, the game is appended to it (games lost by an
+     * illegal move are not).
+     */
+    static int play(Pairing pairing, GameRecord opening, boolean firstIsBlack, GameRecord.Writer records) throws Exception {
+        Engine blackEngine = firstIsBlack ? pairing.first : pairing.second;
+        Engine whiteEngine = firstIsBlack ? pairing.second : pairing.first;
+        IOthelloAI black = blackEngine.create();
+        IOthelloAI white = whiteEngine.create();
+        try {
+            return play(pairing, opening.copy(blackEngine.spec, whiteEngine.spec), firstIsBlack, black, white, records);
+        }
+        finally {
+            // Ponder searches would go on after the game, and the search threads would be kept
+            stopPondering(black, blackEngine);
+            stopPondering(white, whiteEngine);
+            SelfPlay.close(black);
+            SelfPlay.close(white);
+        }
+    }
+
+    // Plays the game on from the moves of the record, adding the moves to it
+    private static int play(Pairing pairing, GameRecord record, boolean firstIsBlack, IOthelloAI black, IOthelloAI white,
+                            GameRecord.Writer records) throws IOException {
+        Engine blackEngine = firstIsBlack ? pairing.first : pairing.second;
+        Engine whiteEngine = firstIsBlack ? pairing.second : pairing.first;
+        var state = record.replay();
+        while (!state.isFinished()) {
+            if (state.mustPass()) {
+                state.changePlayer();
+                record.addPass();
+                continue;
+            }
+            boolean blackToMove = state.getPlayerInTurn() == 1;
+            Engine engine = blackToMove ? blackEngine : whiteEngine;
+            IOthelloAI ai = blackToMove ? black : white;
+            long begin = System.nanoTime();
+            Position move = ai.decideMove(new GameState(state.getBoard(), state.getPlayerInTurn()));
+            long nanos = System.nanoTime() - begin;
+            engine.moves.increment();
+            engine.nanos.add(nanos);
+            if (ai instanceof SmartAI) {
+                engine.nodes.add(((SmartAI) ai).getNodes());
+                engine.searchNanos.add(nanos);
+            }
+            if (!state.insertToken(move)) {
+                synchronized (pairing) {
+                    pairing.forfeits++;
+                }
+                System.err.println(engine + " played the illegal move " + move + " and loses the game");
+                return (engine == pairing.first) ? -1 : 1;
+            }
+            record.addMove(move);
+        }
+        record.finish(state);
+        if (records != null)
+            records.write(record);
+        int[] tokens = state.countTokens();
+        int blackResult = Integer.signum(tokens[0] - tokens[1]);
+        return firstIsBlack ? blackResult : -blackResult;
+    }
+
+    private static void stopPondering(IOthelloAI ai, Engine engine) {
+        if (ai instanceof SmartAI) {
+            var smartAI = (SmartAI) ai;
+            smartAI.stopPondering();
+            engine.ponderHits.add(smartAI.getPonderHits());
+            engine.ponderMisses.add(smartAI.getPonderMisses());
+        }
+    }
+
+    // Plays the given number of random moves from the start position and returns their record
+    private static GameRecord randomOpening(int size, int plies, Random random) {
+        var state = new GameState(size, 1);
+        var record = new GameRecord(size, "", "");
+        for (int ply = 0; ply < plies && !state.isFinished(); ply++) {
+            var moves = state.legalMoves();
+            if (moves.isEmpty()) {
+                state.changePlayer();
+                record.addPass();
+            }
+            else {
+                var move = moves.get(random.nextInt(moves.size()));
+                state.insertToken(move);
+                record.addMove(move);
+            }
+        }
+        return record;
+    }
+
+    // Follows the book from the start position for the given number of plies at most, choosing at random
+    // among the moves that lead to a position in the book, and returns the moves
+    private static GameRecord bookOpening(OpeningBook book, int plies, Random random) {
+        var state = new GameState(BitBoard.SIZE, 1);
+        var record = new GameRecord(BitBoard.SIZE, "", "");
+        for (int ply = 0; ply < plies; ply++) {
+            List<Position> inBook = new ArrayList<>();
+            for (Position move : state.legalMoves()) {
+                long undo = state.applyMove(move);
+                if (book.contains(state))
+                    inBook.add(move);
+                state.undoMove(move, undo);
+            }
+            if (inBook.isEmpty())
+                break;
+            var move = inBook.get(random.nextInt(inBook.size()));
+            state.insertToken(move);
+            record.addMove(move);
+        }
+        return record;
+    }
+
+    private static void report(List<Engine> engines, List<Pairing> pairings) {
+        System.out.println();
+        System.out.printf("%-40s %6s %6s %6s %9s%n", "pairing", "wins", "losses", "draws", "elo");
+        for (Pairing p : pairings) {
+            System.out.printf("%-40s %6d %6d %6d %9s%s%n", p.first + " vs " + p.second, p.wins, p.losses, p.draws,
+                    elo(p.wins, p.losses, p.draws), p.forfeits > 0 ? "  (" + p.forfeits + " forfeits)" : "");
+        }
+        System.out.println();
+        System.out.printf("%-40s %7s %9s %11s %12s%n", "engine", "score", "elo", "ms/move", "nodes/s");
+        for (Engine e : engines) {
+            int wins = 0;
+            int losses = 0;
+            int draws = 0;
+            for (Pairing p : pairings) {
+                if (p.first == e) {
+                    wins += p.wins;
+                    losses += p.losses;
+                }
+                else if (p.second == e) {
+                    wins += p.losses;
+                    losses += p.wins;
+                }
+                else
+                    continue;
+                draws += p.draws;
+            }
+            int games = wins + losses + draws;
+            double moves = Math.max(1, e.moves.sum());
+            String nps = e.searchNanos.sum() > 0 ? String.format(Locale.ROOT, "%.0f", e.nodes.sum() / (e.searchNanos.sum() / 1e9)) : "-";
+            System.out.printf(Locale.ROOT, "%-40s %6.1f%% %9s %11.1f %12s%n", e, 100.0 * (wins + draws / 2.0) / Math.max(1, games),
+                    elo(wins, losses, draws), e.nanos.sum() / moves / 1e6, nps);
+        }
+        for (Engine e : engines) {
+            long ponders = e.ponderHits.sum() + e.ponderMisses.sum();
+            if (ponders > 0)
+                System.out.printf(Locale.ROOT, "%n%s: %d ponder hits, %d misses (%.1f%%)%n", e, e.ponderHits.sum(),
+                        e.ponderMisses.sum(), 100.0 * e.ponderHits.sum() / ponders);
+        }
+        for (var book : openedBooks.entrySet()) {
+            System.out.printf("%nbook %s: %d positions, %d hits, %d misses%n", book.getKey(), book.getValue().size(),
+                    book.getValue().getHits(), book.getValue().getMisses());
+        }
+    }
+
+    /**
+     * Returns the Elo difference implied by the given results with its 95% error bar, e.g. "+35 +-20".
+     */
+    static String elo(int wins, int losses, int draws) {
+        int games = wins + losses + draws;
+        if (games == 0)
+            return "-";
+        double score = (wins + draws / 2.0) / games;
+        // Standard deviation of the mean score of a game
+        double variance = (wins * Math.pow(1 - score, 2) + losses * Math.pow(score, 2) + draws * Math.pow(0.5 - score, 2)) / games;
+        double margin = 1.96 * Math.sqrt(variance / games);
+        double elo = eloOf(score);
+        double error = (eloOf(Math.min(1, score + margin)) - eloOf(Math.max(0, score - margin))) / 2;
+        if (Double.isInfinite(elo))
+            return elo > 0 ? "+inf" : "-inf";
+        return String.format(Locale.ROOT, "%+.0f +-%.0f", elo, Math.min(error, 9999));
+    }
+
+    // Elo difference at which the expected score is the given one
+    private static double eloOf(double score) {
+        if (score <= 0)
+            return Double.NEGATIVE_INFINITY;
+        if (score >= 1)
+            return Double.POSITIVE_INFINITY;
+        return -400 * Math.log10(1 / score - 1);
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Trains the weights of PatternEvaluator on a position file written by SelfPlay, and writes them to a
+ * weight file that SmartAI loads with -Dsmartai.weights. The weights are fitted by least squares
+ * with stochastic gradient descent: for every position, the sum of the weights of its patterns should
+ * be the final disc differential of its game (black minus white).
+ * Every tenth game is kept out of the training and used to measure the error on unseen positions. Whole
+ * games are held out, as the positions of a game are too much alike to be unseen by the training on its
+ * other positions.
+ * The weights are written in units of 1/64 disc.
+ *
+ * Usage: java Trainer [-i positions file] [-o weight file] [-e epochs] [-l learning rate]
+ * Defaults to positions.bin, weights.bin, 20 epochs and a learning rate of 0.002.
+ */
+public class Trainer {
+
+    /** Units of the written weights per disc. */
+    static final int UNITS_PER_DISC = 64;
+
+    private final float[][][] weights = new float[PatternEvaluator.PHASES][PatternEvaluator.TYPES][];
+    private final PatternEvaluator patterns = new PatternEvaluator(null);
+
+    private Trainer() {
+        for (float[][] phase : weights) {
+            for (int type = 0; type < PatternEvaluator.TYPES; type++)
+                phase[type] = new float[PatternEvaluator.TYPE_SIZES[type]];
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String input = "positions.bin";
+        String output = "weights.bin";
+        int epochs = 20;
+        float rate = 0.002f;
+        var options = new Options(args, "Usage: java Trainer [-i positions file] [-o weight file] [-e epochs] [-l learning rate]");
+        while (options.hasNext()) {
+            switch (options.next()) {
+                case "-i": input = options.value(); break;
+                case "-o": output = options.value(); break;
+                case "-e": epochs = options.intValue(); break;
+                case "-l": rate = (float) options.doubleValue(); break;
+                default: options.unknown();
+            }
+        }
+
+        // The positions: black and white bitboards and the final disc differential
+        long[] black;
+        long[] white;
+        byte[] result;
+        try (var channel = FileChannel.open(Path.of(input), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != SelfPlay.MAGIC || buffer.getInt() != SelfPlay.VERSION)
+                throw new IOException(input + " is not a position file");
+            int count = buffer.remaining() / SelfPlay.RECORD_BYTES;
+            black = new long[count];
+            white = new long[count];
+            result = new byte[count];
+            for (int i = 0; i < count; i++) {
+                black[i] = buffer.getLong();
+                white[i] = buffer.getLong();
+                buffer.get(); // The player in turn, which the patterns do not look at
+                result[i] = buffer.get();
+            }
+        }
+        boolean[] heldOut = heldOutGames(black, white, result);
+        int heldOutCount = 0;
+        for (boolean h : heldOut) {
+            if (h)
+                heldOutCount++;
+        }
+        System.out.printf("%d positions, %d of them held out%n", black.length, heldOutCount);
+
+        var trainer = new Trainer();
+        int[] order = new int[black.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        var random = new Random(1);
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            long start = System.nanoTime();
+            // Shuffled every epoch, so the descent does not follow the order of the games
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+            double trainError = 0;
+            double testError = 0;
+            int trainCount = 0;
+            int testCount = 0;
+            for (int i : order) {
+                double error = trainer.step(black[i], white[i], result[i], heldOut[i] ? 0 : rate);
+                if (heldOut[i]) {
+                    testError += error * error;
+                    testCount++;
+                }
+                else {
+                    trainError += error * error;
+                    trainCount++;
+                }
+            }
+            System.out.printf("epoch %d: rms error %.2f discs (training), %.2f discs (held out), %.1f s%n", epoch,
+                    Math.sqrt(trainError / Math.max(1, trainCount)), Math.sqrt(testError / Math.max(1, testCount)),
+                    (System.nanoTime() - start) / 1e9);
+        }
+        trainer.toWeights().save(output);
+        System.out.println("Weights written to " + output);
+    }
+
+    // Returns which positions belong to the held out games, every tenth game. The file does not mark
+    // where a game starts, but SelfPlay writes the positions of a game in order, one for every move of
+    // the engines, so a position follows the one before it in its game if it has the same result and its
+    // tokens cover the squares of that one and one more
+    private static boolean[] heldOutGames(long[] black, long[] white, byte[] result) {
+        boolean[] heldOut = new boolean[black.length];
+        int game = 0;
+        for (int i = 0; i < black.length; i++) {
+            if (i > 0) {
+                long before = black[i - 1] | white[i - 1];
+                long after = black[i] | white[i];
+                boolean next = result[i] == result[i - 1] && (before & ~after) == 0
+                        && Long.bitCount(after) == Long.bitCount(before) + 1;
+                if (!next)
+                    game++;
+            }
+            heldOut[i] = game % 10 == 0;
+        }
+        return heldOut;
+    }
+
+    // Returns the error of the prediction for the position and moves its weights against the error
+    // with the given learning rate (0 to only measure)
+    private double step(long black, long white, int result, float rate) {
+        patterns.setPosition(black, white);
+        int[] index = patterns.indexes();
+        float[][] phase = weights[PatternEvaluator.phase(Long.bitCount(black | white))];
+        float prediction = 0;
+        for (int i = 0; i < index.length; i++)
+            prediction += phase[PatternEvaluator.INSTANCE_TYPE[i]][index[i]];
+        float error = result - prediction;
+        if (rate != 0) {
+            for (int i = 0; i < index.length; i++)
+                phase[PatternEvaluator.INSTANCE_TYPE[i]][index[i]] += rate * error;
+        }
+        return error;
+    }
+
+    // Rounds the weights to shorts in units of 1/UNITS_PER_DISC disc
+    private PatternEvaluator.Weights toWeights() {
+        short[][][] tables = new short[weights.length][PatternEvaluator.TYPES][];
+        for (int phase = 0; phase < weights.length; phase++) {
+            for (int type = 0; type < PatternEvaluator.TYPES; type++) {
+                float[] w = weights[phase][type];
+                short[] t = new short[w.length];
+                for (int i = 0; i < w.length; i++)
+                    t[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(w[i] * UNITS_PER_DISC)));
+                tables[phase][type] = t;
+            }
+        }
+        return new PatternEvaluator.Weights(tables);
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-size transposition table for the alpha-beta search in SmartAI. It remembers, for positions
+ * identified by their Zobrist hash (see GameState.getHash), the result of an earlier search: the depth
+ * searched, whether the score is exact or a bound, the score and the best move found.
+ *
+ * The table is allocated once with a memory budget and stored in two primitive arrays whose length is
+ * a power of two, so a lookup is a mask and two array reads. Each slot holds one position. A new entry
+ * replaces the old one if the old one is from an earlier search or was not searched deeper than the
+ * new one, whether or not it is for the same position.
+ *
+ * The table can be shared by several search threads without locking. A slot stores the entry and the
+ * key XORed with the entry, so if two threads write the same slot at once and the slot ends up with the
+ * key of one write and the entry of the other, the key no longer matches and the slot is just a miss.
+ * Statistics are counted by each thread in its own Statistics object so the threads do not contend.
+ */
+public class TranspositionTable {
+
+    /** The stored score is the exact value of the position. */
+    public static final int EXACT = 0;
+    /** The stored score is a lower bound (the search failed high). */
+    public static final int LOWER = 1;
+    /** The stored score is an upper bound (the search failed low). */
+    public static final int UPPER = 2;
+
+    /** Move of an entry that has no best move. */
+    public static final int NO_MOVE = -1;
+
+    private static final int ENTRY_BYTES = 16; // One long for the checked key and one for the entry
+
+    // Layout of an entry: score in bits 0-31, move+1 in bits 32-47, depth in bits 48-55,
+    // bound in bits 56-57, generation in bits 58-62 and bit 63 set for every stored entry.
+    private static final long USED = 1L << 63;
+
+    private final long[] checks;  // The key of each slot XORed with its entry
+    private final long[] entries;
+    private final int mask;
+    private int generation;
+
+    /**
+     * Creates a table that uses at most the given number of megabytes.
+     */
+    public TranspositionTable(int megabytes) {
+        long slots = Math.max(1, (long) megabytes * 1024 * 1024 / ENTRY_BYTES);
+        int length = (int) Long.highestOneBit(Math.min(slots, 1 << 30));
+        checks = new long[length];
+        entries = new long[length];
+        mask = length - 1;
+    }
+
+    /**
+     * Returns the entry stored for the given key, or 0 if there is none. The parts of the entry are
+     * read with score, move, depth and bound. The lookup is counted in the given statistics.
+     */
+    public long probe(long key, Statistics stats) {
+        stats.probes++;
+        int index = (int) key & mask;
+        long entry = entries[index];
+        if (entry == 0)
+            return 0;
+        if ((checks[index] ^ entry) != key) {
+            // The slot holds another position (or was being written by another thread)
+            stats.collisions++;
+            return 0;
+        }
+        stats.hits++;
+        return entry;
+    }
+
+    /**
+     * Stores the result of searching the position with the given key to the given depth. Nothing is
+     * stored if the slot holds a deeper entry of the current search.
+     * @param bound EXACT, LOWER or UPPER
+     * @param move The best move found, or NO_MOVE
+     */
+    public void store(long key, int depth, int bound, int score, int move, Statistics stats) {
+        int index = (int) key & mask;
+        long old = entries[index];
+        boolean samePosition = old != 0 && (checks[index] ^ old) == key;
+        // An entry of this search that is deeper is kept, also for the same position: the shallow
+        // searches of ProbCut store the positions of the deep search again
+        if (old != 0 && generation(old) == generation && depth(old) > depth)
+            return;
+        if (samePosition && move == NO_MOVE)
+            move = move(old); // Keep the move of an earlier search of the position
+        if (old != 0 && !samePosition)
+            stats.overwrites++;
+        stats.stores++;
+        long entry = USED | (long) generation << 58 | (long) bound << 56 | (long) Math.min(depth, 255) << 48
+                | (long) (move + 1) << 32 | (score & 0xFFFFFFFFL);
+        entries[index] = entry;
+        checks[index] = key ^ entry;
+    }
+
+    /**
+     * Marks the start of a new search. Entries from earlier searches are kept and can still be found,
+     * but are replaced in preference to entries of the current search.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 31;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(checks, 0);
+        Arrays.fill(entries, 0);
+    }
+
+    /** Returns the number of slots in the table. */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    public static int score(long entry) {
+        return (int) entry;
+    }
+
+    public static int move(long entry) {
+        return (int) (entry >>> 32 & 0xFFFF) - 1;
+    }
+
+    public static int depth(long entry) {
+        return (int) (entry >>> 48 & 0xFF);
+    }
+
+    public static int bound(long entry) {
+        return (int) (entry >>> 56 & 3);
+    }
+
+    private static int generation(long entry) {
+        return (int) (entry >>> 58 & 31);
+    }
+
+    /**
+     * Counts of the lookups and writes made by one search thread. Statistics of several threads can be
+     * added up with add.
+     */
+    public static class Statistics {
+        long probes;
+        long hits;
+        long collisions;
+        long stores;
+        long overwrites;
+
+        /** Adds the counts of the given statistics to these. */
+        public void add(Statistics other) {
+            probes += other.probes;
+            hits += other.hits;
+            collisions += other.collisions;
+            stores += other.stores;
+            overwrites += other.overwrites;
+        }
+
+        /** Returns the number of lookups. */
+        public long getProbes() {
+            return probes;
+        }
+
+        /** Returns the number of lookups that found an entry for the position. */
+        public long getHits() {
+            return hits;
+        }
+
+        /** Returns the number of lookups whose slot was held by a different position. */
+        public long getCollisions() {
+            return collisions;
+        }
+
+        /** Returns the number of entries written. */
+        public long getStores() {
+            return stores;
+        }
+
+        /** Returns the number of entries written over an entry for a different position. */
+        public long getOverwrites() {
+            return overwrites;
+        }
+
+        /** Returns the fraction of lookups that found an entry. */
+        public double getHitRate() {
+            return probes == 0 ? 0 : (double) hits / probes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("TT: %d probes, hit rate %.1f%%, %d collisions, %d stores, %d overwrites",
+                    probes, 100 * getHitRate(), collisions, stores, overwrites);
+        }
+    }
+}
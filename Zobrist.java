@@ -0,0 +1,38 @@
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for Zobrist hashing of game states. The hash of a state is the XOR of the key of
+ * every token on the board, plus SIDE if it is player 2's turn, so it can be updated incrementally
+ * when tokens are placed or turned. The keys are generated from a fixed seed, so hashes are the
+ * same in every run (which opening books and game records rely on).
+ */
+public class Zobrist {
+
+    /** XORed into the hash when it is player 2 (white) to move. */
+    public static final long SIDE;
+
+    private static final long SEED = 0x0DD5EED5L;
+    private static long[] keys = new long[0]; // Key of player p on square sq is at index sq*2 + p-1
+
+    static {
+        SIDE = new SplittableRandom(SEED).split().nextLong();
+        keys(8);
+    }
+
+    /**
+     * Returns the keys for a board with the given number of columns and rows. The key of a token of
+     * player p (1 or 2) at square sq (col*size+row) is at index sq*2 + p-1 of the returned array.
+     */
+    public static synchronized long[] keys(int size) {
+        int needed = 2 * size * size;
+        if (keys.length < needed) {
+            // Drawn from the same sequence every time, so the keys already handed out stay valid
+            long[] k = new long[needed];
+            SplittableRandom random = new SplittableRandom(SEED);
+            for (int i = 0; i < needed; i++)
+                k[i] = random.nextLong();
+            keys = k;
+        }
+        return keys;
+    }
+}